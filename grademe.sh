@@ -1,4 +1,4 @@
 cp -r src grademe
 cp resources/* grademe
 cp testcases/* grademe
-javac grademe/*.java grademe/AST/*.java grademe/Config/*.java grademe/IR/*.java grademe/IRGenerator/*.java grademe/MIPSGenerator/*.java grademe/Parser/*.java grademe/RegisterAllocator/*.java grademe/SemanticAnalyzer/*.java grademe/Util/*.java
+javac grademe/*.java grademe/AST/*.java grademe/Cache/*.java grademe/Config/*.java grademe/IR/*.java grademe/IRGenerator/*.java grademe/MIPSGenerator/*.java grademe/Optimizer/*.java grademe/Parser/*.java grademe/RegisterAllocator/*.java grademe/SemanticAnalyzer/*.java grademe/Util/*.java
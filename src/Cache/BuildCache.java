@@ -0,0 +1,230 @@
+package Cache;
+
+import Config.Config;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.stream.Stream;
+
+// On-disk, content addressed cache of compiler outputs
+// An entry is keyed by a hash of everything that can change the output:
+// the source bytes, the grammar and parse table, the compiler itself and the output options
+//
+// Every entry is a single file, written to a temporary file and atomically renamed into place,
+// so concurrent builds sharing a cache directory only ever see complete entries.
+// Entries are touched on every hit and evict() drops the least recently used
+// once the directory grows past Config.CACHE_MAX_BYTES
+
+public class BuildCache {
+
+    private static final int MAGIC = 0x54494743; // "TIGC"
+    private static final String ENTRY_EXTENSION = ".entry";
+
+    private static String compilerFingerprint = null;
+
+    private Path dir;
+
+    public BuildCache(String dir){
+        this.dir = Paths.get(dir);
+    }
+
+    // Builds a hex digest incrementally from the parts of a key
+    public static class KeyBuilder {
+        private MessageDigest digest;
+
+        public KeyBuilder(){
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e){
+                throw new RuntimeException(e);
+            }
+        }
+
+        public KeyBuilder add(byte[] bytes){
+            // length prefix so that adjacent parts can never run into each other
+            int n = bytes.length;
+            digest.update(new byte[]{(byte)(n >>> 24), (byte)(n >>> 16), (byte)(n >>> 8), (byte)n});
+            digest.update(bytes);
+            return this;
+        }
+
+        public KeyBuilder add(String str){
+            return add(str.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public KeyBuilder addFile(String path){
+            try {
+                return add(Files.readAllBytes(Paths.get(path)));
+            }
+            catch (IOException e){
+                return add("missing:" + path);
+            }
+        }
+
+        public String build(){
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()){
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+    }
+
+    // Key for a whole compilation:
+    // everything the front end and back end read, plus the options that shape the artifacts
+    public static String key(String source, String options){
+        return new KeyBuilder()
+                .add(compilerFingerprint())
+                .addFile(Config.GRAMMAR_PATH)
+                .addFile(Config.PARSE_TABLE_PATH)
+                .add(options)
+                .addFile(source)
+                .build();
+    }
+
+    // Identifies the running compiler: the declared version plus a digest of its class files,
+    // so a rebuilt compiler never picks up entries produced by an older one
+    public static String compilerFingerprint(){
+        if (compilerFingerprint != null)
+            return compilerFingerprint;
+
+        KeyBuilder key = new KeyBuilder().add(Config.COMPILER_VERSION);
+        try {
+            Path codeSource = Paths.get(BuildCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isDirectory(codeSource)){
+                ArrayList<Path> classes = new ArrayList<>();
+                try (Stream<Path> walk = Files.walk(codeSource)){
+                    walk.filter(p -> p.toString().endsWith(".class")).forEach(classes::add);
+                }
+                classes.sort(Comparator.comparing(p -> codeSource.relativize(p).toString()));
+                for (Path p : classes){
+                    key.add(codeSource.relativize(p).toString());
+                    key.add(Files.readAllBytes(p));
+                }
+            }
+            else {
+                key.add(Files.readAllBytes(codeSource));
+            }
+        }
+        catch (Exception e){
+            // fall back to the declared version alone
+        }
+        compilerFingerprint = key.build();
+        return compilerFingerprint;
+    }
+
+    // Returns the named artifacts stored under key, or null on a miss
+    public LinkedHashMap<String, String> get(String key){
+        Path entry = dir.resolve(key + ENTRY_EXTENSION);
+        if (!Files.exists(entry))
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))){
+            if (in.readInt() != MAGIC)
+                return null;
+            LinkedHashMap<String, String> artifacts = new LinkedHashMap<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++){
+                String name = readString(in);
+                String content = readString(in);
+                artifacts.put(name, content);
+            }
+            // touch the entry so eviction sees it as recently used
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return artifacts;
+        }
+        catch (IOException e){
+            // a concurrently evicted or unreadable entry is just a miss
+            return null;
+        }
+    }
+
+    // Stores the named artifacts under key
+    // Call evict() once the build is done to keep the cache within its size limit
+    public void put(String key, LinkedHashMap<String, String> artifacts){
+        try {
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))){
+                out.writeInt(MAGIC);
+                out.writeInt(artifacts.size());
+                for (String name : artifacts.keySet()){
+                    writeString(out, name);
+                    writeString(out, artifacts.get(name));
+                }
+            }
+            try {
+                Files.move(tmp, dir.resolve(key + ENTRY_EXTENSION), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (IOException e){
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+        }
+        catch (IOException e){
+            System.out.println("Warning, failed to write build cache entry: " + e);
+        }
+    }
+
+    // Deletes least recently used entries until the cache fits in Config.CACHE_MAX_BYTES
+    public void evict(){
+        ArrayList<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + ENTRY_EXTENSION)){
+            for (Path p : stream){
+                entries.add(p);
+            }
+        }
+        catch (IOException e){
+            return;
+        }
+        LinkedHashMap<Path, Long> sizes = new LinkedHashMap<>();
+        LinkedHashMap<Path, Long> times = new LinkedHashMap<>();
+        long total = 0;
+        for (Path p : entries){
+            try {
+                long size = Files.size(p);
+                sizes.put(p, size);
+                times.put(p, Files.getLastModifiedTime(p).toMillis());
+                total += size;
+            }
+            catch (IOException e){
+                // evicted by someone else in the meantime
+            }
+        }
+        if (total <= Config.CACHE_MAX_BYTES)
+            return;
+
+        ArrayList<Path> byAge = new ArrayList<>(sizes.keySet());
+        byAge.sort(Comparator.comparing(times::get));
+        for (Path p : byAge){
+            if (total <= Config.CACHE_MAX_BYTES)
+                break;
+            try {
+                Files.deleteIfExists(p);
+            }
+            catch (IOException e){
+                // still counted, the next build tries again
+            }
+            total -= sizes.get(p);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
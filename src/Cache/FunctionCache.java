@@ -0,0 +1,162 @@
+package Cache;
+
+import AST.*;
+import Config.Config;
+import IR.IR;
+import IR.IRWriter;
+import IRGenerator.IRGen;
+import MIPSGenerator.MIPSGen;
+import Optimizer.PassManager;
+import RegisterAllocator.RegAllocator;
+import SemanticAnalyzer.SemanticSymbol;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+// Incremental compilation at function granularity
+//
+// Every function (and main) is compiled on its own: IR generation, register allocation and
+// MIPS generation never look outside the function, and labels and temporaries are numbered
+// per function. So the outputs of a function only depend on its own AST and on the symbols
+// it references, and the program is just the concatenation of its functions.
+//
+// The per function outputs are stored in the BuildCache, keyed by a hash of the function's AST
+// plus the signatures and types of every function and variable it references.
+// After an edit only the changed functions go through the back end again.
+
+public class FunctionCache {
+
+    private BuildCache cache;
+    private PassManager passes;
+
+    // Outputs of the last compile()
+    public String ir;
+    public byte[] irb;
+    public String mips;
+
+    // passes must not contain module passes, they'd need the other functions too
+    public FunctionCache(BuildCache cache, PassManager passes){
+        this.cache = cache;
+        this.passes = passes;
+    }
+
+    public void compile(ASTRoot ast){
+        IRGen irgen = new IRGen(ast);
+
+        StringBuilder irText = new StringBuilder();
+        ByteArrayOutputStream irBinary = new ByteArrayOutputStream();
+        StringBuilder mipsText = new StringBuilder();
+        LinkedHashMap<String, String> dataSection = new LinkedHashMap<>();
+
+        for (FunDec function : ast.funDecs){
+            String key = unitKey("function", function);
+            LinkedHashMap<String, String> unit = cache.get(key);
+            if (unit == null){
+                unit = compileUnit(irgen.generate(function));
+                cache.put(key, unit);
+            }
+            addUnit(unit, irText, irBinary, mipsText, dataSection);
+        }
+
+        ArrayList<Node> main = new ArrayList<>();
+        main.addAll(ast.varDecs);
+        main.addAll(ast.stats);
+        String key = unitKey("main", main.toArray(new Node[main.size()]));
+        LinkedHashMap<String, String> unit = cache.get(key);
+        if (unit == null){
+            unit = compileUnit(irgen.generateMain());
+            cache.put(key, unit);
+        }
+        addUnit(unit, irText, irBinary, mipsText, dataSection);
+
+        ir = irText.toString();
+        irb = irBinary.toByteArray();
+        mips = MIPSGen.link(mipsText.toString(), dataSection);
+    }
+
+    // Runs the optimizer and the back end on the IR of one function
+    private LinkedHashMap<String, String> compileUnit(ArrayList<IR> instructions){
+        LinkedHashMap<String, String> unit = new LinkedHashMap<>();
+        instructions = passes.run(instructions);
+        unit.put("ir", IRGen.streamToString(instructions));
+        // binary IR segments of all units concatenate into the program's binary IR
+        unit.put("irb", Base64.getEncoder().encodeToString(IRWriter.write(instructions)));
+
+        ArrayList<IR> allocated = RegAllocator.allocate(instructions);
+        LinkedHashMap<String, String> dataSection = new LinkedHashMap<>();
+        unit.put("s", MIPSGen.generateText(allocated, dataSection));
+
+        StringBuilder data = new StringBuilder();
+        for (String name : dataSection.keySet()){
+            data.append(name).append(" ").append(dataSection.get(name)).append("\n");
+        }
+        unit.put("data", data.toString());
+        return unit;
+    }
+
+    private void addUnit(LinkedHashMap<String, String> unit, StringBuilder irText, ByteArrayOutputStream irBinary,
+                         StringBuilder mipsText, LinkedHashMap<String, String> dataSection){
+        irText.append(unit.get("ir"));
+        byte[] segment = Base64.getDecoder().decode(unit.get("irb"));
+        irBinary.write(segment, 0, segment.length);
+        mipsText.append(unit.get("s"));
+        for (String line : unit.get("data").split("\n")){
+            if (line.isEmpty())
+                continue;
+            int split = line.indexOf(' ');
+            MIPSGen.addData(dataSection, line.substring(0, split), line.substring(split + 1));
+        }
+    }
+
+    // Hash of the unit's AST, the symbols it references, the optimization pipeline and the back end options
+    private String unitKey(String kind, Node... nodes){
+        BuildCache.KeyBuilder key = new BuildCache.KeyBuilder()
+                .add(BuildCache.compilerFingerprint())
+                .add("alloc=" + Config.REG_ALLOCATOR)
+                .add("passes=" + passes.describe())
+                .add(kind);
+
+        LinkedHashSet<SemanticSymbol> symbols = new LinkedHashSet<>();
+        for (Node n : nodes){
+            key.add(ASTToString.getTreeString(n, true));
+            collectSymbols(n, symbols);
+        }
+        for (SemanticSymbol symbol : symbols){
+            key.add(describe(symbol));
+        }
+        return key.build();
+    }
+
+    private static void collectSymbols(Node n, LinkedHashSet<SemanticSymbol> symbols){
+        if (n == null)
+            return;
+        if (n instanceof SemanticSymbol)
+            symbols.add((SemanticSymbol)n);
+        if (n instanceof VarReference)
+            symbols.add(((VarReference)n).reference);
+        for (Node child : n.children()){
+            collectSymbols(child, symbols);
+        }
+    }
+
+    // Everything about a symbol that the code referencing it depends on
+    private static String describe(SemanticSymbol symbol){
+        String out = symbol.getSymbolClass() + " " + symbol.getName() + " local=" + symbol.isLocal();
+        if (symbol.getSymbolClass() == SemanticSymbol.SymbolClass.FunctionDeclatation){
+            out += " (";
+            if (symbol.getFunctionParameters() != null){
+                for (SemanticSymbol param : symbol.getFunctionParameters()){
+                    out += param.getInferredPrimitive() + "[" + param.getArraySize() + "] ";
+                }
+            }
+            out += ") : " + (symbol.getFunctionReturnType() == null ? "void" : symbol.getFunctionReturnType().getInferredPrimitive());
+        }
+        else if (symbol.getSymbolType() != null){
+            out += " : " + symbol.getInferredPrimitive() + "[" + symbol.getArraySize() + "]";
+        }
+        return out;
+    }
+}
@@ -12,6 +12,15 @@ public class Config {
     public enum RegAllocator { NAIVE, INTRABLOCK, GLOBAL};
     public static RegAllocator REG_ALLOCATOR = RegAllocator.INTRABLOCK;
 
+    public static int OPT_LEVEL = 0;                            // -O level, picks the PassManager pipeline
+
+    // Bump whenever a change to the compiler alters its output
+    // Part of every build cache key, so old cache entries are never reused
+    public static String COMPILER_VERSION = "1.3";
+
+    public static String CACHE_DIR = null;                      // Build cache directory, null disables the cache
+    public static long CACHE_MAX_BYTES = 64L * 1024 * 1024;     // Entries are evicted least recently used first past this size
+
     // If false, disables ALL debugging, HIGHEST PRIORITY
     private static boolean DEBUG_MASTER = true;
 
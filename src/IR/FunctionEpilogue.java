@@ -1,7 +1,5 @@
 package IR;
 
-import java.util.ArrayList;
-
 // Just an invisible marker marking the end of a function so that
 // the epilogue can be inserted
 public class FunctionEpilogue extends instruction {
@@ -9,8 +7,12 @@ public class FunctionEpilogue extends instruction {
         return null;
     }
 
-    public ArrayList<Var> use() {
-        return new ArrayList<>();
+    public int useCount() {
+        return 0;
+    }
+
+    public Var useAt(int i) {
+        throw new IndexOutOfBoundsException("use " + i);
     }
 
     public void replaceDef(Var old, Register n){
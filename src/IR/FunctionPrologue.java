@@ -2,20 +2,23 @@ package IR;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 
 // Stores critical information about a function for use in codegen
 public class FunctionPrologue extends FunctionLabel {
     public ArrayList<NamedVar> arguments = new ArrayList<>();
     public HashMap<String, Integer> argumentOffsetMap = new HashMap<>();
     public HashMap<String, Integer> temporaryOffsetMap = new HashMap<>();
-    public HashMap<Register.Reg, Integer> usedRegsOffsetMap = new HashMap<>();
+    public LinkedHashMap<Register.Reg, Integer> usedRegsOffsetMap = new LinkedHashMap<>();
     public int argumentCount = 0;
     public int temporaryCount = 0;
     public int usedRegsCount = 0;
 
     public SharedLabel epilogueLabel = null;
 
+    // No call or callr in the function, set by FunctionSetupVisitor
+    public boolean isLeaf = true;
+
     protected FunctionPrologue(String name) {
         this.name = name;
     }
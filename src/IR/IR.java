@@ -6,7 +6,43 @@ import java.util.ArrayList;
 public abstract class IR {
     public abstract String toString();
     public abstract Var def();
-    public abstract ArrayList<Var> use();
+
+    // Vars read by the instruction, useAt(0) .. useAt(useCount() - 1)
+    // These don't allocate, so liveness and the allocators use them in their inner loops
+    public abstract int useCount();
+    public abstract Var useAt(int i);
+
+    public ArrayList<Var> use(){
+        ArrayList<Var> uses = new ArrayList<>();
+        for (int i = 0; i < useCount(); i++){
+            uses.add(useAt(i));
+        }
+        return uses;
+    }
+
+    public boolean uses(Var v){
+        for (int i = 0; i < useCount(); i++){
+            if (useAt(i) == v)
+                return true;
+        }
+        return false;
+    }
+
+    // For instructions that use whichever of a and b are vars, in that order
+    protected static int countVars(Operand a, Operand b){
+        return (a instanceof Var ? 1 : 0) + (b instanceof Var ? 1 : 0);
+    }
+    protected static Var varAt(int i, Operand a, Operand b){
+        if (a instanceof Var){
+            if (i == 0)
+                return (Var)a;
+            i--;
+        }
+        if (b instanceof Var && i == 0)
+            return (Var)b;
+        throw new IndexOutOfBoundsException("use " + i);
+    }
+
     public abstract void accept(IRVisitor v);
     public abstract void replaceDef(Var old, Register n);
     public abstract void replaceUses(Var old, Register n);
@@ -0,0 +1,374 @@
+package IR;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Loads IR written by IRWriter back into the ArrayList<IR> RegAllocator.allocate() expects
+//
+// Loaded vars and labels are fresh objects, they're not registered with NamedVar/FunctionLabel's
+// global tables so loading never disturbs IR generated in the same run.
+// Function labels and global vars are linked by name across all segments read by one reader,
+// everything else only lives in its own segment.
+
+public class IRReader {
+
+    private DataInputStream in;
+
+    // Per segment tables, indexed in the order the writer first wrote them
+    private ArrayList<Var> vars = new ArrayList<>();
+    private ArrayList<Label> labels = new ArrayList<>();
+
+    // Shared by all segments
+    private HashMap<String, NamedVar> globals = new HashMap<>();
+    private HashMap<String, FunctionLabel> functionLabels = new HashMap<>();
+    private HashMap<String, FunctionPrologue> functionPrologues = new HashMap<>();
+
+    // Arguments and epilogue of every prologue as seen in the current segment
+    private HashMap<FunctionPrologue, ArrayList<NamedVar>> segmentArguments = new HashMap<>();
+    private HashMap<FunctionPrologue, SharedLabel> segmentEpilogues = new HashMap<>();
+
+    public static ArrayList<IR> read(byte[] bytes) throws IOException {
+        return new IRReader().readAll(bytes);
+    }
+
+    // Reads every segment in bytes into one stream
+    public ArrayList<IR> readAll(byte[] bytes) throws IOException {
+        in = new DataInputStream(new ByteArrayInputStream(bytes));
+        ArrayList<IR> instructions = new ArrayList<>();
+        while (in.available() > 0){
+            readSegment(instructions);
+        }
+        return instructions;
+    }
+
+    private void readSegment(ArrayList<IR> instructions) throws IOException {
+        if (in.readInt() != IRWriter.MAGIC)
+            throw new IOException("not a binary IR file");
+        int version = in.readUnsignedByte();
+        if (version != IRWriter.VERSION)
+            throw new IOException("unsupported binary IR version " + version);
+
+        vars.clear();
+        labels.clear();
+        segmentArguments.clear();
+        segmentEpilogues.clear();
+        int count = readNumber();
+        for (int n = 0; n < count; n++){
+            instructions.add(readInstruction());
+        }
+    }
+
+    private IR readInstruction() throws IOException {
+        int opcode = in.readUnsignedByte();
+        boolean isInteger = (opcode & IRWriter.FLOAT_FLAG) == 0;
+        opcode &= ~IRWriter.FLOAT_FLAG;
+
+        if (opcode == IRWriter.LABEL){
+            Label label = readLabel();
+            if (label instanceof FunctionPrologue){
+                // the segment holding the function's body owns its arguments
+                FunctionPrologue prologue = (FunctionPrologue)label;
+                prologue.arguments = segmentArguments.get(prologue);
+                prologue.epilogueLabel = segmentEpilogues.get(prologue);
+            }
+            return label;
+        }
+
+        instruction i;
+        switch (opcode){
+            case IRWriter.ADD:
+                i = new add(readOperand(), readOperand(), readOperand(), isInteger);
+                break;
+            case IRWriter.SUB:
+                i = new sub(readOperand(), readOperand(), readOperand(), isInteger);
+                break;
+            case IRWriter.MULT:
+                i = new mult(readOperand(), readOperand(), readOperand(), isInteger);
+                break;
+            case IRWriter.DIV:
+                i = new div(readOperand(), readOperand(), readOperand(), isInteger);
+                break;
+            case IRWriter.AND:
+                i = new and(readOperand(), readOperand(), readOperand());
+                break;
+            case IRWriter.OR:
+                i = new or(readOperand(), readOperand(), readOperand());
+                break;
+            case IRWriter.ASSIGN:
+                i = new assign(readOperand(), readOperand(), isInteger);
+                break;
+            case IRWriter.ARRAY_LOAD:
+            case IRWriter.ARRAY_LOAD_BYTES: {
+                Operand left = readOperand();
+                array_load load = new array_load(left, null, null, isInteger);
+                load.var = readOperand();
+                load.index = readOperand();
+                load.byteIndex = (opcode == IRWriter.ARRAY_LOAD_BYTES);
+                i = load;
+                break;
+            }
+            case IRWriter.ARRAY_STORE:
+            case IRWriter.ARRAY_STORE_BYTES: {
+                array_store store = new array_store(null, null, null, isInteger);
+                store.var = readVar();
+                store.index = readOperand();
+                store.right = readOperand();
+                store.byteIndex = (opcode == IRWriter.ARRAY_STORE_BYTES);
+                i = store;
+                break;
+            }
+            case IRWriter.ARRAY_ASSIGN:
+            case IRWriter.ARRAY_ASSIGN_STATIC: {
+                array_assign assign = new array_assign((NamedVar)readVar(), (IntImmediate)readOperand(), readOperand(), isInteger);
+                assign.isStatic = (opcode == IRWriter.ARRAY_ASSIGN_STATIC);
+                i = assign;
+                break;
+            }
+            case IRWriter.GOTO:
+                i = new goTo((LabelOp)readOperand());
+                break;
+            case IRWriter.CALL:
+            case IRWriter.TAIL_CALL: {
+                LabelOp fun = (LabelOp)readOperand();
+                call c = new call(fun, readArguments());
+                c.tail = (opcode == IRWriter.TAIL_CALL);
+                i = c;
+                break;
+            }
+            case IRWriter.CALLR:
+            case IRWriter.TAIL_CALLR: {
+                LabelOp fun = (LabelOp)readOperand();
+                Operand retVal = readOperand();
+                callr c = new callr(fun, retVal, readArguments());
+                c.tail = (opcode == IRWriter.TAIL_CALLR);
+                i = c;
+                break;
+            }
+            case IRWriter.RET:
+                i = new ret(readOperand());
+                break;
+            case IRWriter.BREQ:
+                i = new breq(readOperand(), readOperand(), (LabelOp)readOperand(), isInteger);
+                break;
+            case IRWriter.BRNEQ:
+                i = new brneq(readOperand(), readOperand(), (LabelOp)readOperand(), isInteger);
+                break;
+            case IRWriter.BRLT:
+                i = new brlt(readOperand(), readOperand(), (LabelOp)readOperand(), isInteger);
+                break;
+            case IRWriter.BRGT:
+                i = new brgt(readOperand(), readOperand(), (LabelOp)readOperand(), isInteger);
+                break;
+            case IRWriter.BRLEQ:
+                i = new brleq(readOperand(), readOperand(), (LabelOp)readOperand(), isInteger);
+                break;
+            case IRWriter.BRGEQ:
+                i = new brgeq(readOperand(), readOperand(), (LabelOp)readOperand(), isInteger);
+                break;
+            case IRWriter.EPILOGUE:
+                i = new FunctionEpilogue();
+                break;
+            case IRWriter.INT_TO_FLOAT:
+                i = new intToFloat(readOperand(), readOperand());
+                break;
+            case IRWriter.MOVFI: {
+                FloatImmediate src = (FloatImmediate)readOperand();
+                movfi m = new movfi(src, null);
+                m.dst = readOperand();
+                i = m;
+                break;
+            }
+            case IRWriter.SELECT: {
+                select.Compare compare = select.Compare.values()[in.readUnsignedByte()];
+                i = new select(compare, readOperand(), readOperand(), readOperand(), readOperand(), readOperand());
+                break;
+            }
+            case IRWriter.LOAD: {
+                Register dst = (Register)readOperand();
+                i = new load(dst, readVar(), isInteger);
+                break;
+            }
+            case IRWriter.STORE: {
+                Register src = (Register)readOperand();
+                i = new store(src, readVar(), isInteger);
+                break;
+            }
+            default:
+                throw new IOException("unknown opcode " + opcode);
+        }
+        // some constructors work the type out themselves, keep whatever was written
+        i.isInteger = isInteger;
+        return i;
+    }
+
+    private ArrayList<Operand> readArguments() throws IOException {
+        int count = readNumber();
+        ArrayList<Operand> args = new ArrayList<>();
+        for (int n = 0; n < count; n++){
+            args.add(readOperand());
+        }
+        return args;
+    }
+
+    private Var readVar() throws IOException {
+        Operand o = readOperand();
+        if (!(o instanceof Var))
+            throw new IOException("expected a var, found " + o);
+        return (Var)o;
+    }
+
+    private Operand readOperand() throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag){
+            case IRWriter.NULL:
+                return null;
+            case IRWriter.INT: {
+                int n = readNumber();
+                return new IntImmediate((n >>> 1) ^ -(n & 1));
+            }
+            case IRWriter.FLOAT:
+                return new FloatImmediate(Float.intBitsToFloat(in.readInt()));
+            case IRWriter.REGISTER: {
+                int reg = in.readUnsignedByte();
+                if (reg >= Register.Reg.values().length)
+                    throw new IOException("unknown register " + reg);
+                return new Register(Register.Reg.values()[reg]);
+            }
+            case IRWriter.VAR_REF:
+            case IRWriter.NAMED_VAR:
+            case IRWriter.TEMP_INT_VAR:
+            case IRWriter.TEMP_FLOAT_VAR:
+                return readVarBody(tag);
+            case IRWriter.LABEL_REF:
+            case IRWriter.SHARED_LABEL:
+            case IRWriter.FUNCTION_LABEL:
+            case IRWriter.FUNCTION_PROLOGUE:
+                return new LabelOp(readLabelBody(tag));
+            default:
+                throw new IOException("unknown operand tag " + tag);
+        }
+    }
+
+    private Var readVarBody(int tag) throws IOException {
+        if (tag == IRWriter.VAR_REF){
+            int index = readNumber();
+            if (index >= vars.size())
+                throw new IOException("bad var index " + index);
+            return vars.get(index);
+        }
+
+        Var v;
+        if (tag == IRWriter.TEMP_INT_VAR){
+            v = new TempIntVar(readNumber());
+        }
+        else if (tag == IRWriter.TEMP_FLOAT_VAR){
+            v = new TempFloatVar(readNumber());
+        }
+        else {
+            v = NamedVar.load(readString());
+        }
+        int flags = in.readUnsignedByte();
+        v.isInteger = (flags & 1) != 0;
+        v.isLocal = (flags & 2) != 0;
+
+        // globals are the same object in every function that uses them
+        if (v instanceof NamedVar && !v.isLocal){
+            NamedVar global = globals.putIfAbsent(v.name, (NamedVar)v);
+            if (global != null)
+                v = global;
+        }
+        vars.add(v);
+        return v;
+    }
+
+    private Label readLabel() throws IOException {
+        Label label = readLabelBody(in.readUnsignedByte());
+        if (label == null)
+            throw new IOException("missing label");
+        return label;
+    }
+
+    private Label readLabelBody(int tag) throws IOException {
+        if (tag == IRWriter.LABEL_REF){
+            int index = readNumber();
+            if (index >= labels.size())
+                throw new IOException("bad label index " + index);
+            return labels.get(index);
+        }
+
+        String name = readString();
+        if (tag == IRWriter.SHARED_LABEL){
+            Label label = new SharedLabel(name, readNumber());
+            labels.add(label);
+            return label;
+        }
+        if (tag == IRWriter.FUNCTION_LABEL){
+            FunctionLabel label = functionLabels.get(name);
+            if (label == null){
+                label = new FunctionLabel(name);
+                functionLabels.put(name, label);
+            }
+            labels.add(label);
+            return label;
+        }
+        if (tag == IRWriter.FUNCTION_PROLOGUE){
+            FunctionPrologue prologue = functionPrologues.get(name);
+            boolean fresh = (prologue == null);
+            if (fresh){
+                prologue = new FunctionPrologue(name);
+                functionPrologues.put(name, prologue);
+            }
+            labels.add(prologue);
+
+            // the arguments and epilogue are written with the first use of the prologue in every segment
+            ArrayList<NamedVar> arguments = new ArrayList<>();
+            int argc = readNumber();
+            for (int n = 0; n < argc; n++){
+                Var arg = readVar();
+                if (!(arg instanceof NamedVar))
+                    throw new IOException("function argument " + arg + " is not a named var");
+                arguments.add((NamedVar)arg);
+            }
+            Label epilogue = readLabelBody(in.readUnsignedByte());
+            if (epilogue != null && !(epilogue instanceof SharedLabel))
+                throw new IOException("bad epilogue label " + epilogue.name);
+
+            segmentArguments.put(prologue, arguments);
+            segmentEpilogues.put(prologue, (SharedLabel)epilogue);
+            if (fresh){
+                prologue.arguments = arguments;
+                prologue.epilogueLabel = (SharedLabel)epilogue;
+            }
+            return prologue;
+        }
+        if (tag == IRWriter.NULL){
+            return null;
+        }
+        throw new IOException("unknown label tag " + tag);
+    }
+
+    private int readNumber() throws IOException {
+        int n = 0;
+        for (int shift = 0; shift < 35; shift += 7){
+            int b = in.readUnsignedByte();
+            n |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return n;
+        }
+        throw new IOException("bad number");
+    }
+
+    private String readString() throws IOException {
+        int length = readNumber();
+        if (length > in.available())
+            throw new EOFException();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
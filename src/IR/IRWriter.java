@@ -0,0 +1,362 @@
+package IR;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+// Compact binary encoding of an IR stream, read back by IRReader
+//
+// A file is a sequence of segments, each one a self contained stream (usually one function):
+//     magic, version, instruction count, instructions
+// An instruction is an opcode byte (high bit set for float instructions) followed by its operands.
+// Every operand starts with a tag byte. Vars and labels are written out in full the first time
+// they show up in a segment and by their index in the segment's table after that, so that
+// the reader gets back one shared object per var and label just like IRGen made them.
+// Segments can simply be concatenated, the reader links function labels and global vars across them.
+
+public class IRWriter implements IRVisitor {
+
+    static final int MAGIC = 0x54494752; // "TIGR"
+    // goes up whenever the encoding changes, 2 added opcodes 27 to 32
+    static final int VERSION = 2;
+
+    // Opcodes
+    static final int ADD = 1;
+    static final int SUB = 2;
+    static final int MULT = 3;
+    static final int DIV = 4;
+    static final int AND = 5;
+    static final int OR = 6;
+    static final int ASSIGN = 7;
+    static final int ARRAY_LOAD = 8;
+    static final int ARRAY_STORE = 9;
+    static final int ARRAY_ASSIGN = 10;
+    static final int GOTO = 11;
+    static final int CALL = 12;
+    static final int CALLR = 13;
+    static final int RET = 14;
+    static final int BREQ = 15;
+    static final int BRNEQ = 16;
+    static final int BRLT = 17;
+    static final int BRGT = 18;
+    static final int BRLEQ = 19;
+    static final int BRGEQ = 20;
+    static final int LABEL = 21;
+    static final int EPILOGUE = 22;
+    static final int INT_TO_FLOAT = 23;
+    static final int MOVFI = 24;
+    static final int LOAD = 25;
+    static final int STORE = 26;
+    static final int ARRAY_LOAD_BYTES = 27;
+    static final int ARRAY_STORE_BYTES = 28;
+    static final int TAIL_CALL = 29;
+    static final int TAIL_CALLR = 30;
+    static final int ARRAY_ASSIGN_STATIC = 31;
+    static final int SELECT = 32;
+    static final int FLOAT_FLAG = 0x80;
+
+    // Operand tags
+    static final int NULL = 0;
+    static final int INT = 1;
+    static final int FLOAT = 2;
+    static final int REGISTER = 3;
+    static final int VAR_REF = 4;
+    static final int NAMED_VAR = 5;
+    static final int TEMP_INT_VAR = 6;
+    static final int TEMP_FLOAT_VAR = 7;
+    static final int LABEL_REF = 8;
+    static final int SHARED_LABEL = 9;
+    static final int FUNCTION_LABEL = 10;
+    static final int FUNCTION_PROLOGUE = 11;
+
+    private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private DataOutputStream out = new DataOutputStream(bytes);
+
+    // Indices of the vars and labels already written in the current segment
+    private IdentityHashMap<Var, Integer> vars = new IdentityHashMap<>();
+    private IdentityHashMap<Label, Integer> labels = new IdentityHashMap<>();
+
+    public static byte[] write(ArrayList<IR> instructions){
+        IRWriter writer = new IRWriter();
+        writer.writeSegment(instructions);
+        return writer.toByteArray();
+    }
+
+    // Appends instructions as a new segment
+    public void writeSegment(ArrayList<IR> instructions){
+        vars.clear();
+        labels.clear();
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeNumber(instructions.size());
+        }
+        catch (IOException e){
+            throw new RuntimeException(e);
+        }
+        for (IR i : instructions){
+            i.accept(this);
+        }
+    }
+
+    public byte[] toByteArray(){
+        return bytes.toByteArray();
+    }
+
+    private void op(int opcode, boolean isInteger){
+        writeByte(isInteger ? opcode : opcode | FLOAT_FLAG);
+    }
+
+    private void writeByte(int b){
+        try {
+            out.writeByte(b);
+        }
+        catch (IOException e){
+            // a ByteArrayOutputStream never throws
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Unsigned LEB128
+    private void writeNumber(int n){
+        while ((n & ~0x7f) != 0){
+            writeByte((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        writeByte(n);
+    }
+
+    private void writeString(String str){
+        byte[] b = str.getBytes(StandardCharsets.UTF_8);
+        writeNumber(b.length);
+        bytes.write(b, 0, b.length);
+    }
+
+    private void operand(Operand o){
+        if (o == null){
+            writeByte(NULL);
+        }
+        else if (o instanceof IntImmediate){
+            writeByte(INT);
+            int val = ((IntImmediate)o).val;
+            writeNumber((val << 1) ^ (val >> 31)); // zigzag so small negatives stay small
+        }
+        else if (o instanceof FloatImmediate){
+            writeByte(FLOAT);
+            try {
+                out.writeInt(Float.floatToIntBits(((FloatImmediate)o).val));
+            }
+            catch (IOException e){
+                throw new RuntimeException(e);
+            }
+        }
+        else if (o instanceof Register){
+            writeByte(REGISTER);
+            writeByte(((Register)o).register.ordinal());
+        }
+        else if (o instanceof Var){
+            var((Var)o);
+        }
+        else if (o instanceof LabelOp){
+            label(((LabelOp)o).label);
+        }
+        else {
+            throw new IllegalArgumentException("Unknown operand " + o);
+        }
+    }
+
+    private void var(Var v){
+        Integer index = vars.get(v);
+        if (index != null){
+            writeByte(VAR_REF);
+            writeNumber(index);
+            return;
+        }
+        vars.put(v, vars.size());
+        if (v instanceof TempIntVar){
+            writeByte(TEMP_INT_VAR);
+            writeNumber(((TempIntVar)v).id);
+        }
+        else if (v instanceof TempFloatVar){
+            writeByte(TEMP_FLOAT_VAR);
+            writeNumber(((TempFloatVar)v).id);
+        }
+        else {
+            writeByte(NAMED_VAR);
+            writeString(v.name);
+        }
+        writeByte((v.isInt() ? 1 : 0) | (v.isLocal ? 2 : 0));
+    }
+
+    private void label(Label l){
+        Integer index = labels.get(l);
+        if (index != null){
+            writeByte(LABEL_REF);
+            writeNumber(index);
+            return;
+        }
+        labels.put(l, labels.size());
+        if (l instanceof SharedLabel){
+            writeByte(SHARED_LABEL);
+            writeString(l.name);
+            writeNumber(((SharedLabel)l).id);
+        }
+        else if (l instanceof FunctionPrologue){
+            FunctionPrologue prologue = (FunctionPrologue)l;
+            writeByte(FUNCTION_PROLOGUE);
+            writeString(l.name);
+            writeNumber(prologue.arguments.size());
+            for (NamedVar arg : prologue.arguments){
+                var(arg);
+            }
+            if (prologue.epilogueLabel == null){
+                writeByte(NULL);
+            }
+            else {
+                label(prologue.epilogueLabel);
+            }
+        }
+        else {
+            writeByte(FUNCTION_LABEL);
+            writeString(l.name);
+        }
+    }
+
+    private void binop(int opcode, binop i){
+        op(opcode, i.isInt());
+        operand(i.left);
+        operand(i.right);
+        operand(i.result);
+    }
+
+    private void branch(int opcode, branch i){
+        op(opcode, i.isInt());
+        operand(i.left);
+        operand(i.right);
+        operand(i.labelOp);
+    }
+
+    private void call(int opcode, callInstruction i, Operand retVal){
+        if (i.tail)
+            opcode = (opcode == CALLR) ? TAIL_CALLR : TAIL_CALL;
+        op(opcode, i.isInt());
+        operand(i.fun);
+        if (opcode == CALLR || opcode == TAIL_CALLR)
+            operand(retVal);
+        writeNumber(i.args.size());
+        for (Operand arg : i.args){
+            operand(arg);
+        }
+    }
+
+    public void visit(add i) { binop(ADD, i); }
+    public void visit(sub i) { binop(SUB, i); }
+    public void visit(mult i) { binop(MULT, i); }
+    public void visit(div i) { binop(DIV, i); }
+    public void visit(and i) { binop(AND, i); }
+    public void visit(or i) { binop(OR, i); }
+
+    public void visit(assign i) {
+        op(ASSIGN, i.isInt());
+        operand(i.var);
+        operand(i.right);
+    }
+
+    public void visit(array_load i) {
+        op(i.byteIndex ? ARRAY_LOAD_BYTES : ARRAY_LOAD, i.isInt());
+        operand(i.left);
+        operand(i.var);
+        operand(i.index);
+    }
+
+    public void visit(array_store i) {
+        op(i.byteIndex ? ARRAY_STORE_BYTES : ARRAY_STORE, i.isInt());
+        operand(i.var);
+        operand(i.index);
+        operand(i.right);
+    }
+
+    public void visit(array_assign i) {
+        op(i.isStatic ? ARRAY_ASSIGN_STATIC : ARRAY_ASSIGN, i.isInt());
+        operand(i.var);
+        operand(i.count);
+        operand(i.val);
+    }
+
+    public void visit(goTo i) {
+        op(GOTO, i.isInt());
+        operand(i.labelOp);
+    }
+
+    public void visit(call i) { call(CALL, i, null); }
+    public void visit(callr i) { call(CALLR, i, i.retVal); }
+
+    public void visit(ret i) {
+        op(RET, i.isInt());
+        operand(i.retVal);
+    }
+
+    public void visit(breq i) { branch(BREQ, i); }
+    public void visit(brneq i) { branch(BRNEQ, i); }
+    public void visit(brlt i) { branch(BRLT, i); }
+    public void visit(brgt i) { branch(BRGT, i); }
+    public void visit(brleq i) { branch(BRLEQ, i); }
+    public void visit(brgeq i) { branch(BRGEQ, i); }
+
+    public void visit(SharedLabel i) {
+        op(LABEL, true);
+        label(i);
+    }
+
+    public void visit(FunctionLabel i) {
+        op(LABEL, true);
+        label(i);
+    }
+
+    public void visit(FunctionPrologue i) {
+        op(LABEL, true);
+        label(i);
+    }
+
+    public void visit(FunctionEpilogue i) {
+        op(EPILOGUE, i.isInt());
+    }
+
+    public void visit(intToFloat i) {
+        op(INT_TO_FLOAT, i.isInt());
+        operand(i.src);
+        operand(i.dest);
+    }
+
+    public void visit(movfi i) {
+        op(MOVFI, i.isInt());
+        operand(i.src);
+        operand(i.dst);
+    }
+
+    // the compare goes first, as a byte
+    public void visit(select i) {
+        op(SELECT, i.isInt());
+        writeByte(i.compare.ordinal());
+        operand(i.left);
+        operand(i.right);
+        operand(i.value);
+        operand(i.other);
+        operand(i.result);
+    }
+
+    public void visit(load i) {
+        op(LOAD, i.isInt());
+        operand(i.dst);
+        operand(i.src);
+    }
+
+    public void visit(store i) {
+        op(STORE, i.isInt());
+        operand(i.src);
+        operand(i.dst);
+    }
+}
@@ -2,8 +2,6 @@ package IR;
 
 // note that labels are also classed as instructions
 
-import java.util.ArrayList;
-
 public abstract class Label extends IR {
 
     public String name;
@@ -12,8 +10,11 @@ public abstract class Label extends IR {
     public Var def(){
         return null;
     }
-    public  ArrayList<Var> use(){
-        return new ArrayList<>();
+    public int useCount(){
+        return 0;
+    }
+    public Var useAt(int i){
+        throw new IndexOutOfBoundsException("use " + i);
     }
     public  void replaceDef(Var old, Register n){}
     public  void replaceUses(Var old, Register n){}
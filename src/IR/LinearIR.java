@@ -0,0 +1,439 @@
+package IR;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// The instructions of one function packed into a flat int array
+//
+// Every var of the function gets a dense id (0 .. varCount()-1) and every label an id, so passes
+// can keep per var state in plain arrays and walk the code without touching an IR object.
+// An instruction is laid out as
+//     opcode (IRWriter opcodes, FLOAT_FLAG set for float instructions)
+//     def var id or NONE
+//     use count, use var ids (same vars and order as IR.use())
+//     operand count, operands (every operand of the instruction in constructor order)
+// An operand slot has its kind in the low 3 bits and a var id, label id, small int,
+// register or constant pool index above that.
+//
+// get()/accept() rebuild IR objects from the packed form so existing IRVisitors keep working.
+// The rebuilt instructions share the function's Var and Label objects but are otherwise fresh,
+// changes made to them are not written back.
+
+public class LinearIR {
+
+    public static final int NONE = -1;
+
+    // Operand kinds
+    static final int VAR = 0;
+    static final int LABEL = 1;
+    static final int INT = 2;
+    static final int BIG_INT = 3;
+    static final int FLOAT = 4;
+    static final int REGISTER = 5;
+    static final int NULL = 6;
+    static final int KIND_BITS = 3;
+    static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+    private int[] code = new int[64];
+    private int codeSize = 0;
+    private int[] starts = new int[16];
+    private int count = 0;
+
+    private ArrayList<Var> vars = new ArrayList<>();
+    private IdentityHashMap<Var, Integer> varIds = new IdentityHashMap<>();
+    private ArrayList<Label> labels = new ArrayList<>();
+    private IdentityHashMap<Label, Integer> labelIds = new IdentityHashMap<>();
+    // big ints and float bits
+    private int[] constants = new int[4];
+    private int constantCount = 0;
+
+    // One LinearIR per function (main included), split the same way as FlowGraphGen
+    public static ArrayList<LinearIR> generate(ArrayList<IR> instructions){
+        ArrayList<LinearIR> out = new ArrayList<>();
+        ArrayList<IR> current = new ArrayList<>();
+        for (IR instruction : instructions){
+            if (instruction instanceof FunctionLabel && !current.isEmpty()){
+                out.add(new LinearIR(current));
+                current = new ArrayList<>();
+            }
+            current.add(instruction);
+        }
+        if (!current.isEmpty())
+            out.add(new LinearIR(current));
+        return out;
+    }
+
+    public LinearIR(ArrayList<IR> instructions){
+        Encoder encoder = new Encoder();
+        for (IR i : instructions){
+            encoder.begin(i);
+            i.accept(encoder);
+        }
+    }
+
+    public int size(){
+        return count;
+    }
+
+    public int opcode(int n){
+        return code[starts[n]] & ~IRWriter.FLOAT_FLAG;
+    }
+
+    public boolean isInt(int n){
+        return (code[starts[n]] & IRWriter.FLOAT_FLAG) == 0;
+    }
+
+    // Var id defined by instruction n, or NONE
+    public int def(int n){
+        return code[starts[n] + 1];
+    }
+
+    public int useCount(int n){
+        return code[starts[n] + 2];
+    }
+
+    // Var id of the i-th use of instruction n
+    public int useAt(int n, int i){
+        return code[starts[n] + 3 + i];
+    }
+
+    public int varCount(){
+        return vars.size();
+    }
+
+    public Var var(int id){
+        return vars.get(id);
+    }
+
+    // Dense id of v in this function, or NONE
+    public int varId(Var v){
+        Integer id = varIds.get(v);
+        return id == null ? NONE : id;
+    }
+
+    // Makes get()/toIR() use v wherever var id was, e.g. to copy the code into another function
+    public void setVar(int id, Var v){
+        vars.set(id, v);
+        varIds.put(v, id);
+    }
+
+    public int labelCount(){
+        return labels.size();
+    }
+
+    public Label label(int id){
+        return labels.get(id);
+    }
+
+    // Same as setVar() for labels, label records decode to l itself
+    public void setLabel(int id, Label l){
+        labels.set(id, l);
+        labelIds.put(l, id);
+    }
+
+    // Rebuilds instruction n as an IR object
+    public IR get(int n){
+        return new Decoder(n).decode();
+    }
+
+    public void accept(IRVisitor v){
+        for (int n = 0; n < count; n++){
+            get(n).accept(v);
+        }
+    }
+
+    public ArrayList<IR> toIR(){
+        ArrayList<IR> out = new ArrayList<>();
+        for (int n = 0; n < count; n++){
+            out.add(get(n));
+        }
+        return out;
+    }
+
+    private void append(int slot){
+        if (codeSize == code.length)
+            code = Arrays.copyOf(code, code.length * 2);
+        code[codeSize++] = slot;
+    }
+
+    private int id(Var v){
+        Integer id = varIds.get(v);
+        if (id == null){
+            id = vars.size();
+            vars.add(v);
+            varIds.put(v, id);
+        }
+        return id;
+    }
+
+    private int id(Label l){
+        Integer id = labelIds.get(l);
+        if (id == null){
+            id = labels.size();
+            labels.add(l);
+            labelIds.put(l, id);
+        }
+        return id;
+    }
+
+    private int constant(int value){
+        if (constantCount == constants.length)
+            constants = Arrays.copyOf(constants, constants.length * 2);
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+
+    private int pack(int kind, int payload){
+        return (payload << KIND_BITS) | kind;
+    }
+
+    private int encode(Operand o){
+        if (o == null)
+            return pack(NULL, 0);
+        if (o instanceof Var)
+            return pack(VAR, id((Var)o));
+        if (o instanceof LabelOp)
+            return pack(LABEL, id(((LabelOp)o).label));
+        if (o instanceof Register)
+            return pack(REGISTER, ((Register)o).register.ordinal());
+        if (o instanceof FloatImmediate)
+            return pack(FLOAT, constant(Float.floatToIntBits(((FloatImmediate)o).val)));
+        if (o instanceof IntImmediate){
+            int val = ((IntImmediate)o).val;
+            // small enough to survive the shift
+            if ((val << KIND_BITS) >> KIND_BITS == val)
+                return pack(INT, val);
+            return pack(BIG_INT, constant(val));
+        }
+        throw new IllegalArgumentException("Unknown operand " + o);
+    }
+
+    private Operand decode(int slot){
+        int payload = slot >> KIND_BITS;
+        switch (slot & KIND_MASK){
+            case VAR: return vars.get(payload);
+            case LABEL: return new LabelOp(labels.get(payload));
+            case INT: return new IntImmediate(payload);
+            case BIG_INT: return new IntImmediate(constants[payload]);
+            case FLOAT: return new FloatImmediate(Float.intBitsToFloat(constants[payload]));
+            case REGISTER: return new Register(Register.Reg.values()[payload]);
+            default: return null;
+        }
+    }
+
+    // Appends one record per visited instruction
+    private class Encoder implements IRVisitor {
+
+        private IR current;
+
+        void begin(IR i){
+            current = i;
+            if (count == starts.length)
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            starts[count++] = codeSize;
+        }
+
+        private void record(int opcode, boolean isInteger, Operand... operands){
+            append(isInteger ? opcode : opcode | IRWriter.FLOAT_FLAG);
+            Var def = current.def();
+            append(def == null ? NONE : id(def));
+            append(current.useCount());
+            for (int u = 0; u < current.useCount(); u++){
+                append(id(current.useAt(u)));
+            }
+            append(operands.length);
+            for (Operand o : operands){
+                append(encode(o));
+            }
+        }
+
+        private void label(Label l){
+            record(IRWriter.LABEL, true, new LabelOp(l));
+        }
+
+        private void call(int opcode, callInstruction i, Operand retVal){
+            Operand[] operands = new Operand[i.args.size() + 2];
+            operands[0] = i.fun;
+            operands[1] = retVal;
+            for (int a = 0; a < i.args.size(); a++){
+                operands[a + 2] = i.args.get(a);
+            }
+            record(opcode, i.isInt(), operands);
+        }
+
+        public void visit(add i) { record(IRWriter.ADD, i.isInt(), i.left, i.right, i.result); }
+        public void visit(sub i) { record(IRWriter.SUB, i.isInt(), i.left, i.right, i.result); }
+        public void visit(mult i) { record(IRWriter.MULT, i.isInt(), i.left, i.right, i.result); }
+        public void visit(div i) { record(IRWriter.DIV, i.isInt(), i.left, i.right, i.result); }
+        public void visit(and i) { record(IRWriter.AND, i.isInt(), i.left, i.right, i.result); }
+        public void visit(or i) { record(IRWriter.OR, i.isInt(), i.left, i.right, i.result); }
+        public void visit(assign i) { record(IRWriter.ASSIGN, i.isInt(), i.var, i.right); }
+        public void visit(array_load i) { record(i.byteIndex ? IRWriter.ARRAY_LOAD_BYTES : IRWriter.ARRAY_LOAD, i.isInt(), i.left, i.var, i.index); }
+        public void visit(array_store i) { record(i.byteIndex ? IRWriter.ARRAY_STORE_BYTES : IRWriter.ARRAY_STORE, i.isInt(), i.var, i.index, i.right); }
+        public void visit(array_assign i) { record(i.isStatic ? IRWriter.ARRAY_ASSIGN_STATIC : IRWriter.ARRAY_ASSIGN, i.isInt(), i.var, i.count, i.val); }
+        public void visit(goTo i) { record(IRWriter.GOTO, i.isInt(), i.labelOp); }
+        public void visit(call i) { call(i.tail ? IRWriter.TAIL_CALL : IRWriter.CALL, i, null); }
+        public void visit(callr i) { call(i.tail ? IRWriter.TAIL_CALLR : IRWriter.CALLR, i, i.retVal); }
+        public void visit(ret i) { record(IRWriter.RET, i.isInt(), i.retVal); }
+        public void visit(breq i) { record(IRWriter.BREQ, i.isInt(), i.left, i.right, i.labelOp); }
+        public void visit(brneq i) { record(IRWriter.BRNEQ, i.isInt(), i.left, i.right, i.labelOp); }
+        public void visit(brlt i) { record(IRWriter.BRLT, i.isInt(), i.left, i.right, i.labelOp); }
+        public void visit(brgt i) { record(IRWriter.BRGT, i.isInt(), i.left, i.right, i.labelOp); }
+        public void visit(brleq i) { record(IRWriter.BRLEQ, i.isInt(), i.left, i.right, i.labelOp); }
+        public void visit(brgeq i) { record(IRWriter.BRGEQ, i.isInt(), i.left, i.right, i.labelOp); }
+        public void visit(SharedLabel i) { label(i); }
+        public void visit(FunctionLabel i) { label(i); }
+        public void visit(FunctionPrologue i) { label(i); }
+        public void visit(FunctionEpilogue i) { record(IRWriter.EPILOGUE, i.isInt()); }
+        public void visit(intToFloat i) { record(IRWriter.INT_TO_FLOAT, i.isInt(), i.src, i.dest); }
+        public void visit(movfi i) { record(IRWriter.MOVFI, i.isInt(), i.src, i.dst); }
+        public void visit(select i) { record(IRWriter.SELECT, i.isInt(), new IntImmediate(i.compare.ordinal()), i.left, i.right, i.value, i.other, i.result); }
+        public void visit(load i) { record(IRWriter.LOAD, i.isInt(), i.dst, i.src); }
+        public void visit(store i) { record(IRWriter.STORE, i.isInt(), i.src, i.dst); }
+    }
+
+    // Rebuilds the IR object for one record
+    private class Decoder {
+
+        private int opcode;
+        private int operands; // index of the first operand slot
+
+        Decoder(int n){
+            int start = starts[n];
+            opcode = code[start];
+            operands = start + 3 + code[start + 2] + 1;
+        }
+
+        private Operand operand(int i){
+            return LinearIR.this.decode(code[operands + i]);
+        }
+
+        private ArrayList<Operand> arguments(){
+            ArrayList<Operand> args = new ArrayList<>();
+            for (int a = 2; a < code[operands - 1]; a++){
+                args.add(operand(a));
+            }
+            return args;
+        }
+
+        IR decode(){
+            boolean isInteger = (opcode & IRWriter.FLOAT_FLAG) == 0;
+            instruction i;
+            int op = opcode & ~IRWriter.FLOAT_FLAG;
+            switch (op){
+                case IRWriter.LABEL:
+                    return labels.get(code[operands] >> KIND_BITS);
+                case IRWriter.ADD:
+                    i = new add(operand(0), operand(1), operand(2), isInteger);
+                    break;
+                case IRWriter.SUB:
+                    i = new sub(operand(0), operand(1), operand(2), isInteger);
+                    break;
+                case IRWriter.MULT:
+                    i = new mult(operand(0), operand(1), operand(2), isInteger);
+                    break;
+                case IRWriter.DIV:
+                    i = new div(operand(0), operand(1), operand(2), isInteger);
+                    break;
+                case IRWriter.AND:
+                    i = new and(operand(0), operand(1), operand(2));
+                    break;
+                case IRWriter.OR:
+                    i = new or(operand(0), operand(1), operand(2));
+                    break;
+                case IRWriter.ASSIGN:
+                    i = new assign(operand(0), operand(1), isInteger);
+                    break;
+                case IRWriter.ARRAY_LOAD:
+                case IRWriter.ARRAY_LOAD_BYTES: {
+                    array_load load = new array_load(operand(0), null, operand(2), isInteger);
+                    load.var = operand(1);
+                    load.byteIndex = (op == IRWriter.ARRAY_LOAD_BYTES);
+                    i = load;
+                    break;
+                }
+                case IRWriter.ARRAY_STORE:
+                case IRWriter.ARRAY_STORE_BYTES: {
+                    array_store store = new array_store(null, operand(1), operand(2), isInteger);
+                    store.var = (Var)operand(0);
+                    store.byteIndex = (op == IRWriter.ARRAY_STORE_BYTES);
+                    i = store;
+                    break;
+                }
+                case IRWriter.ARRAY_ASSIGN:
+                case IRWriter.ARRAY_ASSIGN_STATIC: {
+                    array_assign assign = new array_assign((NamedVar)operand(0), (IntImmediate)operand(1), operand(2), isInteger);
+                    assign.isStatic = (op == IRWriter.ARRAY_ASSIGN_STATIC);
+                    i = assign;
+                    break;
+                }
+                case IRWriter.GOTO:
+                    i = new goTo((LabelOp)operand(0));
+                    break;
+                case IRWriter.CALL:
+                case IRWriter.TAIL_CALL: {
+                    call c = new call((LabelOp)operand(0), arguments());
+                    c.tail = (op == IRWriter.TAIL_CALL);
+                    i = c;
+                    break;
+                }
+                case IRWriter.CALLR:
+                case IRWriter.TAIL_CALLR: {
+                    callr c = new callr((LabelOp)operand(0), operand(1), arguments());
+                    c.tail = (op == IRWriter.TAIL_CALLR);
+                    i = c;
+                    break;
+                }
+                case IRWriter.RET:
+                    i = new ret(operand(0));
+                    break;
+                case IRWriter.BREQ:
+                    i = new breq(operand(0), operand(1), (LabelOp)operand(2), isInteger);
+                    break;
+                case IRWriter.BRNEQ:
+                    i = new brneq(operand(0), operand(1), (LabelOp)operand(2), isInteger);
+                    break;
+                case IRWriter.BRLT:
+                    i = new brlt(operand(0), operand(1), (LabelOp)operand(2), isInteger);
+                    break;
+                case IRWriter.BRGT:
+                    i = new brgt(operand(0), operand(1), (LabelOp)operand(2), isInteger);
+                    break;
+                case IRWriter.BRLEQ:
+                    i = new brleq(operand(0), operand(1), (LabelOp)operand(2), isInteger);
+                    break;
+                case IRWriter.BRGEQ:
+                    i = new brgeq(operand(0), operand(1), (LabelOp)operand(2), isInteger);
+                    break;
+                case IRWriter.EPILOGUE:
+                    i = new FunctionEpilogue();
+                    break;
+                case IRWriter.INT_TO_FLOAT:
+                    i = new intToFloat(operand(0), operand(1));
+                    break;
+                case IRWriter.MOVFI: {
+                    movfi m = new movfi((FloatImmediate)operand(0), null);
+                    m.dst = operand(1);
+                    i = m;
+                    break;
+                }
+                case IRWriter.SELECT: {
+                    select.Compare compare = select.Compare.values()[((IntImmediate)operand(0)).val];
+                    i = new select(compare, operand(1), operand(2), operand(3), operand(4), operand(5));
+                    break;
+                }
+                case IRWriter.LOAD:
+                    i = new load((Register)operand(0), (Var)operand(1), isInteger);
+                    break;
+                case IRWriter.STORE:
+                    i = new store((Register)operand(0), (Var)operand(1), isInteger);
+                    break;
+                default:
+                    throw new IllegalStateException("unknown opcode " + opcode);
+            }
+            i.isInteger = isInteger;
+            return i;
+        }
+    }
+}
@@ -10,6 +10,15 @@ public class NamedVar extends Var {
         this.isLocal = symbol.isLocal();
     }
 
+    private NamedVar(String name){
+        this.name = name;
+    }
+
+    // A var loaded back from binary IR, its type and scope are set by IRReader
+    static NamedVar load(String name){
+        return new NamedVar(name);
+    }
+
     public static NamedVar generateNamedVar(SemanticSymbol symbol) {
         NamedVar var;
         if (getNames().containsKey(symbol.uniqueString())){
@@ -108,4 +108,9 @@ public class Register extends Operand {
         if (isInteger)  return new Register(Reg.S1);
         else return new Register(Reg.F9);
     }
+    // only a select has three vars to load, nothing else writes $v1
+    public static Register res3(boolean isInteger){
+        if (isInteger)  return new Register(Reg.V1);
+        else return new Register(Reg.F10);
+    }
 }
@@ -4,11 +4,31 @@ public class SharedLabel extends Label {
 
 
     private static int labelNum = 0;
+    private static String scope = "";
     public int id; // each label should be uniquely identified I think...
 
     public SharedLabel(String name){
         id = labelNum++;
-        this.name = name + "_" + id;
+        this.name = scope + name + "_" + id;
     }
+
+    // Used by IRReader to recreate a label exactly as it was written
+    SharedLabel(String name, int id){
+        this.id = id;
+        this.name = name;
+    }
+
+    // A label for a function whose IR already exists, id must not be taken in that function yet
+    public static SharedLabel generate(String functionName, String name, int id){
+        return new SharedLabel(functionName + "_" + name + "_" + id, id);
+    }
+
+    // Labels are numbered per function and prefixed with the function's name,
+    // so the labels of one function never depend on the code generated for another
+    public static void beginScope(String functionName){
+        scope = functionName + "_";
+        labelNum = 0;
+    }
+
     public void accept(IRVisitor v) { v.visit(this); }
 }
@@ -13,6 +13,13 @@ public class TempFloatVar extends TempVar {
         name = "__f" + id;
     }
 
+    // Used by IRReader, doesn't take a number from the counter
+    TempFloatVar(int id){
+        isInteger = false;
+        this.id = id;
+        name = "__f" + id;
+    }
+
     public static TempFloatVar gen(boolean inFunction) {
         TempFloatVar var = new TempFloatVar();
         var.isLocal = inFunction;
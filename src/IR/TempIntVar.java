@@ -14,6 +14,13 @@ public class TempIntVar extends TempVar {
         name = "__t" + id;
     }
 
+    // Used by IRReader, doesn't take a number from the counter
+    TempIntVar(int id){
+        isInteger = true;
+        this.id = id;
+        name = "__t" + id;
+    }
+
     public static TempIntVar gen(boolean inFunction){
         TempIntVar var = new TempIntVar();
         var.isLocal = inFunction;
@@ -20,6 +20,20 @@ public abstract class TempVar extends Var {
             return TempFloatVar.gen(inFunction);
     }
 
+    // A temporary for IR that's already been generated, id must be unused in its function
+    // (see IRFunction.newTemp())
+    public static TempVar generate(boolean isInteger, int id, boolean inFunction){
+        TempVar var = isInteger ? new TempIntVar(id) : new TempFloatVar(id);
+        var.isLocal = inFunction;
+        return var;
+    }
+
+    // Temporaries are numbered per function, see SharedLabel.beginScope()
+    public static void beginScope(){
+        TempIntVar.num = 0;
+        TempFloatVar.num = 0;
+    }
+
     public String toString(){
         return name;
     }
@@ -2,16 +2,19 @@ package IR;
 
 // represents assigning a single value to every element of an array
 // var X : ArrayInt := 10;
+// A static one has its value put in .data and no code at all, the store loop that usually
+// follows it is gone. StaticInitPass also makes those for scalar globals, with a count of 1.
 
 
-import java.util.ArrayList;
-
 public class array_assign extends regularInstruction {
 
     public NamedVar var;
     public IntImmediate count;
     public Operand val;
 
+    // val is an immediate set in .data
+    public boolean isStatic = false;
+
     public array_assign(NamedVar var, IntImmediate count, Operand val, boolean isInteger){
         this.var = var;
         this.count = count;
@@ -23,8 +26,11 @@ public class array_assign extends regularInstruction {
         return null;
     }
 
-    public ArrayList<Var> use(){
-        return new ArrayList<>();
+    public int useCount(){
+        return 0;
+    }
+    public Var useAt(int i){
+        throw new IndexOutOfBoundsException("use " + i);
     }
 
     public void replaceDef(Var old, Register n){
@@ -33,7 +39,7 @@ public class array_assign extends regularInstruction {
     }
 
     public String toString(){
-        return "array_assign, " + var + ", " + count + ", " + val;
+        return "array_assign, " + var + ", " + count + ", " + val + (isStatic ? " (static)" : "");
     }
     public void accept(IRVisitor v) { v.visit(this); }
 }
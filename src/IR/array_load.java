@@ -1,7 +1,5 @@
 package IR;
 
-import java.util.ArrayList;
-
 public class array_load extends regularInstruction {
 
     // the l-value is always Named
@@ -10,6 +8,8 @@ public class array_load extends regularInstruction {
     // the right hand side could be anything
     public Operand var;
     public Operand index;
+    // index is already multiplied by 4 (a byte offset into the array)
+    public boolean byteIndex = false;
 
     public array_load(Operand left, NamedVar var, Operand index, boolean isInteger){
         this.left = left;
@@ -23,10 +23,11 @@ public class array_load extends regularInstruction {
         else return null;
     }
 
-    public ArrayList<Var> use(){
-        ArrayList<Var> uses = new ArrayList<>();
-        if (index instanceof Var) uses.add((Var)index);
-        return uses;
+    public int useCount(){
+        return countVars(index, null);
+    }
+    public Var useAt(int i){
+        return varAt(i, index, null);
     }
 
     public void replaceDef(Var old, Register n){
@@ -39,7 +40,7 @@ public class array_load extends regularInstruction {
 
 
     public String toString(){
-        return "array_load, " + left + ", " + var + ", " + index;
+        return "array_load, " + left + ", " + var + ", " + index + (byteIndex ? " (bytes)" : "");
     }
     public void accept(IRVisitor v) { v.visit(this); }
 }
@@ -1,12 +1,12 @@
 package IR;
 
-import java.util.ArrayList;
-
 public class array_store extends regularInstruction {
 
     // the l-value is always Named
     public Var var;
     public Operand index;
+    // index is already multiplied by 4 (a byte offset into the array)
+    public boolean byteIndex = false;
     // the right hand side could be anything
     public Operand right;
 
@@ -21,11 +21,11 @@ public class array_store extends regularInstruction {
         return null;
     }
 
-    public ArrayList<Var> use(){
-        ArrayList<Var> uses = new ArrayList<>();
-        if (right instanceof Var) uses.add((Var)right);
-        if (index instanceof Var) uses.add((Var)index);
-        return uses;
+    public int useCount(){
+        return countVars(right, index);
+    }
+    public Var useAt(int i){
+        return varAt(i, right, index);
     }
 
     public void replaceDef(Var old, Register n){
@@ -37,7 +37,7 @@ public class array_store extends regularInstruction {
 
 
     public String toString(){
-        return "array_store, " + var + ", " + index + ", " + right;
+        return "array_store, " + var + ", " + index + (byteIndex ? " (bytes)" : "") + ", " + right;
     }
     public void accept(IRVisitor v) { v.visit(this); }
 }
@@ -1,7 +1,5 @@
 package IR;
 
-import java.util.ArrayList;
-
 public class assign extends regularInstruction {
 
     public Operand var;
@@ -23,10 +21,11 @@ public class assign extends regularInstruction {
         }
     }
 
-    public ArrayList<Var> use(){
-        ArrayList<Var> uses = new ArrayList<>();
-        if (right instanceof Var) uses.add((Var)right);
-        return uses;
+    public int useCount(){
+        return countVars(right, null);
+    }
+    public Var useAt(int i){
+        return varAt(i, right, null);
     }
 
     public void replaceDef(Var old, Register n){
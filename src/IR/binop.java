@@ -8,8 +8,6 @@ package IR;
 // Now i'm thinking perhaps we should make a new class Operand
 // where an operand is either
 
-import java.util.ArrayList;
-
 public abstract class binop extends regularInstruction {
 
     public Operand left;
@@ -32,11 +30,11 @@ public abstract class binop extends regularInstruction {
         }
     }
 
-    public ArrayList<Var> use(){
-        ArrayList<Var> uses = new ArrayList<>();
-        if (left instanceof Var) uses.add((Var)left);
-        if (right instanceof Var) uses.add((Var)right);
-        return uses;
+    public int useCount(){
+        return countVars(left, right);
+    }
+    public Var useAt(int i){
+        return varAt(i, left, right);
     }
 
     public void replaceDef(Var old, Register n){
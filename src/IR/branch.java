@@ -1,7 +1,5 @@
 package IR;
 
-import java.util.ArrayList;
-
 public abstract class branch extends controlFlowInstruction {
 
     public Operand left;
@@ -19,11 +17,11 @@ public abstract class branch extends controlFlowInstruction {
         return null;
     }
 
-    public ArrayList<Var> use(){
-        ArrayList<Var> uses = new ArrayList<>();
-        if (left instanceof Var) uses.add((Var)left);
-        if (right instanceof Var) uses.add((Var)right);
-        return uses;
+    public int useCount(){
+        return countVars(left, right);
+    }
+    public Var useAt(int i){
+        return varAt(i, left, right);
     }
 
     public void replaceDef(Var old, Register n){
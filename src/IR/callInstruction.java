@@ -7,4 +7,7 @@ public abstract class callInstruction extends jumpLabel {
     public LabelOp fun;
     public ArrayList<Operand> args;
 
+    // Right before the caller returns, the callee can return to the caller's caller directly
+    public boolean tail = false;
+
 }
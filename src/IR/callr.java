@@ -17,14 +17,19 @@ public class callr extends callInstruction {
         else return null;
     }
 
-    public ArrayList<Var> use(){
-        ArrayList<Var> uses = new ArrayList<>();
-        for (Operand arg : args){
-            if (arg instanceof Var){
-                uses.add((Var)arg);
-            }
+    public int useCount(){
+        int count = 0;
+        for (int a = 0; a < args.size(); a++){
+            if (args.get(a) instanceof Var) count++;
+        }
+        return count;
+    }
+    public Var useAt(int i){
+        for (int a = 0; a < args.size(); a++){
+            if (args.get(a) instanceof Var && i-- == 0)
+                return (Var)args.get(a);
         }
-        return uses;
+        throw new IndexOutOfBoundsException("use " + i);
     }
 
     public void replaceDef(Var old, Register n){
@@ -45,6 +50,7 @@ public class callr extends callInstruction {
         for (Operand arg : args){
             out += (", " + arg);
         }
+        if (tail) out += " (tail)";
         return out;
     }
 
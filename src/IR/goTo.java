@@ -1,7 +1,5 @@
 package IR;
 
-import java.util.ArrayList;
-
 public class goTo extends jumpLabel {
 
 
@@ -14,9 +12,11 @@ public class goTo extends jumpLabel {
         return null;
     }
 
-    public ArrayList<Var> use(){
-        ArrayList<Var> uses = new ArrayList<>();
-        return uses;
+    public int useCount(){
+        return 0;
+    }
+    public Var useAt(int i){
+        throw new IndexOutOfBoundsException("use " + i);
     }
 
     public void replaceDef(Var old, Register n){
@@ -1,7 +1,5 @@
 package IR;
 
-import java.util.ArrayList;
-
 public class intToFloat extends regularInstruction{
 
     public Operand src;
@@ -18,10 +16,11 @@ public class intToFloat extends regularInstruction{
         else return null;
     }
 
-    public ArrayList<Var> use(){
-        ArrayList<Var> uses = new ArrayList<>();
-        if (src instanceof Var) uses.add((Var)src);
-        return uses;
+    public int useCount(){
+        return countVars(src, null);
+    }
+    public Var useAt(int i){
+        return varAt(i, src, null);
     }
 
     public void replaceDef(Var old, Register n){
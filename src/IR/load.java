@@ -1,7 +1,5 @@
 package IR;
 
-import java.util.ArrayList;
-
 /**
  * Created by ian on 12/1/15.
  */
@@ -19,10 +17,13 @@ public class load extends instruction {
         return null;
     }
 
-    public ArrayList<Var> use() {
-        ArrayList<Var> uses = new ArrayList<>();
-        uses.add(src);
-        return uses;
+    public int useCount() {
+        return 1;
+    }
+
+    public Var useAt(int i) {
+        if (i != 0) throw new IndexOutOfBoundsException("use " + i);
+        return src;
     }
 
     // ACTUALLY THESE ARE STUPID AND SHOULD NEVER BE REACHED
@@ -1,7 +1,5 @@
 package IR;
 
-import java.util.ArrayList;
-
 /**
  * Created by ian on 12/1/15.
  */
@@ -20,10 +18,13 @@ public class movfi extends instruction {
         else return null;
     }
 
-    public ArrayList<Var> use() {
-        ArrayList<Var> uses = new ArrayList<>();
+    public int useCount() {
         // TODO: Figure out how to add this to data memory
-        return uses;
+        return 0;
+    }
+
+    public Var useAt(int i) {
+        throw new IndexOutOfBoundsException("use " + i);
     }
 
     // TODO: DOUBLE CHECK THESE IMPLEMENTATIONS
@@ -1,7 +1,5 @@
 package IR;
 
-import java.util.ArrayList;
-
 public class ret extends jump {
 
     public Operand retVal;
@@ -16,10 +14,11 @@ public class ret extends jump {
         return null;
     }
 
-    public ArrayList<Var> use(){
-        ArrayList<Var> uses = new ArrayList<>();
-        if (retVal instanceof Var) uses.add((Var)retVal);
-        return uses;
+    public int useCount(){
+        return countVars(retVal, null);
+    }
+    public Var useAt(int i){
+        return varAt(i, retVal, null);
     }
 
     public void replaceDef(Var old, Register n){
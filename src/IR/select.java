@@ -0,0 +1,72 @@
+package IR;
+
+// result := value if (left compare right) holds, other if it doesn't, without a branch
+// IfConversionPass makes these out of small ifs that only assign one var, codegen turns them
+// into an slt (xor for = and <>) followed by a movn or movz. Ints only.
+
+public class select extends regularInstruction {
+
+    public enum Compare { EQ, NEQ, LT, GT, LEQ, GEQ }
+
+    public Compare compare;
+    public Operand left;
+    public Operand right;
+    public Operand value;
+    public Operand other;
+    public Operand result;
+
+    public select(Compare compare, Operand left, Operand right, Operand value, Operand other, Operand result){
+        this.compare = compare;
+        this.left = left;
+        this.right = right;
+        this.value = value;
+        this.other = other;
+        this.result = result;
+        this.isInteger = true;
+    }
+
+    // The compare a branch jumps on
+    public static Compare of(branch b){
+        if (b instanceof breq) return Compare.EQ;
+        if (b instanceof brneq) return Compare.NEQ;
+        if (b instanceof brlt) return Compare.LT;
+        if (b instanceof brgt) return Compare.GT;
+        if (b instanceof brleq) return Compare.LEQ;
+        return Compare.GEQ;
+    }
+
+    public Var def(){
+        if (result instanceof Var) {
+            return (Var) result;
+        } else {
+            return null;
+        }
+    }
+
+    public int useCount(){
+        return countVars(left, right) + countVars(value, other);
+    }
+    public Var useAt(int i){
+        int first = countVars(left, right);
+        if (i < first)
+            return varAt(i, left, right);
+        return varAt(i - first, value, other);
+    }
+
+    public void replaceDef(Var old, Register n){
+        if (result == old) result = n;
+        else System.out.println("ERROR select.replaceDef()");
+    }
+    public void replaceUses(Var old, Register n){
+        if (left == old) left = n;
+        if (right == old) right = n;
+        if (value == old) value = n;
+        if (other == old) other = n;
+    }
+
+    public String toString(){
+        return "select" + compare.name().toLowerCase() + ", " + left + ", " + right + ", "
+                + value + ", " + other + ", " + result;
+    }
+    public void accept(IRVisitor v) { v.visit(this); }
+}
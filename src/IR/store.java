@@ -1,7 +1,5 @@
 package IR;
 
-import java.util.ArrayList;
-
 
 public class store extends instruction {
     public Register src;
@@ -17,10 +15,13 @@ public class store extends instruction {
         return null;
     }
 
-    public ArrayList<Var> use() {
-        ArrayList<Var> uses = new ArrayList<>();
-        uses.add(dst);
-        return uses;
+    public int useCount() {
+        return 1;
+    }
+
+    public Var useAt(int i) {
+        if (i != 0) throw new IndexOutOfBoundsException("use " + i);
+        return dst;
     }
 
     // ACTUALLY THESE ARE STUPID AND SHOULD NEVER BE REACHED
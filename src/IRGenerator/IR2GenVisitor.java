@@ -24,6 +24,27 @@ public class IR2GenVisitor implements Visitor {
         return instructions;
     }
 
+    // generates the IR of a single function
+    public ArrayList<IR> generateIR(FunDec function){
+        instructions = new ArrayList<>();
+        function.accept(this);
+        return instructions;
+    }
+
+    // generates the IR of main: global initializations followed by the program body
+    public ArrayList<IR> generateMainIR(){
+        instructions = new ArrayList<>();
+        emitMain(ast);
+        return instructions;
+    }
+
+    // Every function numbers its labels and temporaries from zero,
+    // so its IR only depends on its own source
+    private void beginFunction(String name){
+        SharedLabel.beginScope(name);
+        TempVar.beginScope();
+    }
+
     private void debugPrompt(String str){
         if (Config.DEBUG_IRCODEGEN)
             System.out.println("Visiting (" + str + ")");
@@ -54,6 +75,11 @@ public class IR2GenVisitor implements Visitor {
         for (FunDec d : n.funDecs){
             d.accept(this);
         }
+        emitMain(n);
+    }
+
+    private void emitMain(AST.ASTRoot n){
+        beginFunction("main");
         emit(FunctionLabel.generate("main"));
         for (VarDec d : n.varDecs){
             d.accept(this);
@@ -104,6 +130,7 @@ public class IR2GenVisitor implements Visitor {
     public void visit(FunDec n){
         debugPrompt("FunDec");
 
+        beginFunction("_" + n.function.getName());
         FunctionPrologue prologue = (FunctionPrologue) FunctionPrologue.generate("_" + n.function.getName());
         for (SemanticSymbol s : n.function.getFunctionParameters()) {
             NamedVar var = NamedVar.generateNamedVar(s);
@@ -119,7 +146,7 @@ public class IR2GenVisitor implements Visitor {
 
         inFunction = false;
 
-        Label epilogueLabel = new SharedLabel("_" + n.function.getName() + "_epilogue");
+        Label epilogueLabel = new SharedLabel("epilogue");
         prologue.epilogueLabel = (SharedLabel)epilogueLabel;
         emit(epilogueLabel);
         emit(new FunctionEpilogue());
@@ -222,8 +249,7 @@ public class IR2GenVisitor implements Visitor {
 
         SharedLabel ifFalse = new SharedLabel("if_false");
 
-        context.setFalseLabel(ifFalse);
-        stat.cond.accept(this);
+        condition(stat.cond, ifFalse, false);
 
         for (Stat s : stat.trueStats){
             s.accept(this);
@@ -281,8 +307,7 @@ public class IR2GenVisitor implements Visitor {
         SharedLabel after = new SharedLabel("after_while");
         emit(before);
 
-        context.setFalseLabel(after);
-        stat.cond.accept(this);
+        condition(stat.cond, after, false);
 
         context.breakLabels.push(after);
         for (Stat s : stat.stats){
@@ -425,64 +450,103 @@ public class IR2GenVisitor implements Visitor {
 
     public void visit(Eq n){
         debugPrompt("Eq");
-
-        Label falseLabel = context.getFalseLabel();
-
-        Operand[] left = new Operand[1], right = new Operand[1];
-        processCompBinOp(n, left, right);
-
-        emit(new brneq(left[0], right[0], new LabelOp(falseLabel), intResult(left[0], right[0])));
-
+        compareValue(n);
     }
     public void visit(Neq n){
         debugPrompt("Neq");
-
-        Label falseLabel = context.getFalseLabel();
-
-        Operand[] left = new Operand[1], right = new Operand[1];
-        processCompBinOp(n, left, right);
-
-        emit(new breq(left[0], right[0], new LabelOp(falseLabel), intResult(left[0], right[0])));
+        compareValue(n);
     }
     public void visit(Greater n){
         debugPrompt("Greater");
-
-        Label falseLabel = context.getFalseLabel();
-
-        Operand[] left = new Operand[1], right = new Operand[1];
-        processCompBinOp(n, left, right);
-
-        emit(new brleq(left[0], right[0], new LabelOp(falseLabel), intResult(left[0], right[0])));
+        compareValue(n);
     }
     public void visit(GreaterEq n){
         debugPrompt("GreaterEq");
-
-        Label falseLabel = context.getFalseLabel();
-
-        Operand[] left = new Operand[1], right = new Operand[1];
-        processCompBinOp(n, left, right);
-
-        emit(new brlt(left[0], right[0], new LabelOp(falseLabel), intResult(left[0], right[0])));
+        compareValue(n);
     }
     public void visit(Lesser n){
         debugPrompt("Lesser");
-
-        Label falseLabel = context.getFalseLabel();
-
-        Operand[] left = new Operand[1], right = new Operand[1];
-        processCompBinOp(n, left, right);
-
-        emit(new brgeq(left[0], right[0], new LabelOp(falseLabel), intResult(left[0], right[0])));
+        compareValue(n);
     }
     public void visit(LesserEq n){
         debugPrompt("LesserEq");
+        compareValue(n);
+    }
 
-        Label falseLabel = context.getFalseLabel();
+    // A comparison used as a value is 1 or 0
+    private void compareValue(ComparisonBinOp n){
+        TempIntVar result = TempIntVar.gen(inFunction);
+        SharedLabel done = new SharedLabel("compare_done");
+        emit(new assign(result, new IntImmediate(0), true));
+        condition(n, done, false);
+        emit(new assign(result, new IntImmediate(1), true));
+        emit(done);
+        context.setRetVal(result);
+    }
 
-        Operand[] left = new Operand[1], right = new Operand[1];
-        processCompBinOp(n, left, right);
+    // Jumping code for conditions
+    //
+    // Branches to target when cond comes out as jumpIf, falls through otherwise. A comparison
+    // branches on its operands, & and | short-circuit, so no 0/1 value is computed for them:
+    //     a & b, jump if false:   a false -> target, b false -> target
+    //     a & b, jump if true:    a false -> skip, b true -> target, skip:
+    // and the other way around for |. That's only the same as the bitwise and/or when both
+    // sides are 0 or 1 (comparisons, or & and | of those), anything else is computed and
+    // compared with 0.
+    private void condition(Expr cond, Label target, boolean jumpIf){
+        if (cond instanceof ComparisonBinOp){
+            Operand[] left = new Operand[1], right = new Operand[1];
+            processCompBinOp((BinOp)cond, left, right);
+            emit(compare((ComparisonBinOp)cond, left[0], right[0], new LabelOp(target), jumpIf));
+        }
+        else if (cond instanceof LogicBinOp && isBoolean(cond)){
+            LogicBinOp n = (LogicBinOp)cond;
+            boolean isAnd = n instanceof And;
+            // false & b and true | b, the left side decides the jump on its own
+            if (isAnd != jumpIf){
+                condition(n.left, target, jumpIf);
+                condition(n.right, target, jumpIf);
+            }
+            else {
+                SharedLabel skip = new SharedLabel(isAnd ? "and_false" : "or_true");
+                condition(n.left, skip, !jumpIf);
+                condition(n.right, target, jumpIf);
+                emit(skip);
+            }
+        }
+        else {
+            cond.accept(this);
+            Operand value = context.getRetVal();
+            if (jumpIf)
+                emit(new brneq(value, new IntImmediate(0), new LabelOp(target), true));
+            else
+                emit(new breq(value, new IntImmediate(0), new LabelOp(target), true));
+        }
+    }
+
+    // Whether e is always 0 or 1
+    private static boolean isBoolean(Expr e){
+        if (e instanceof ComparisonBinOp)
+            return true;
+        if (e instanceof LogicBinOp)
+            return isBoolean(((LogicBinOp)e).left) && isBoolean(((LogicBinOp)e).right);
+        return false;
+    }
 
-        emit(new brgt(left[0], right[0], new LabelOp(falseLabel), intResult(left[0], right[0])));
+    // The branch taken when the comparison is jumpIf
+    private static branch compare(ComparisonBinOp n, Operand left, Operand right, LabelOp target, boolean jumpIf){
+        boolean isInt = intResult(left, right);
+        if (n instanceof Eq)
+            return jumpIf ? new breq(left, right, target, isInt) : new brneq(left, right, target, isInt);
+        if (n instanceof Neq)
+            return jumpIf ? new brneq(left, right, target, isInt) : new breq(left, right, target, isInt);
+        if (n instanceof Greater)
+            return jumpIf ? new brgt(left, right, target, isInt) : new brleq(left, right, target, isInt);
+        if (n instanceof GreaterEq)
+            return jumpIf ? new brgeq(left, right, target, isInt) : new brlt(left, right, target, isInt);
+        if (n instanceof Lesser)
+            return jumpIf ? new brlt(left, right, target, isInt) : new brgeq(left, right, target, isInt);
+        return jumpIf ? new brleq(left, right, target, isInt) : new brgt(left, right, target, isInt);
     }
 
     public void visit(SemanticSymbol n){
@@ -1,8 +1,9 @@
 package IRGenerator;
 
 import AST.ASTRoot;
+import AST.FunDec;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import IR.*;
 
 public class IRGen {
@@ -10,15 +11,16 @@ public class IRGen {
     // AST representation output by parser
     public AST.ASTRoot ast;
     private ArrayList<IR> instructions;
+    private IR2GenVisitor generator;
 
 
     public IRGen(AST.ASTRoot ast){
         this.ast = ast;
+        this.generator = new IR2GenVisitor(ast);
     }
 
     // generates IR code using the AST
     public ArrayList<IR> generate(){
-        IR2GenVisitor generator = new IR2GenVisitor(ast);
         instructions = generator.generateIR();
 
         removeRedundantLabels();
@@ -26,71 +28,82 @@ public class IRGen {
         return instructions;
     }
 
+    // generates IR code for a single function
+    // the whole program is the functions in declaration order followed by main
+    public ArrayList<IR> generate(FunDec function){
+        instructions = generator.generateIR(function);
+
+        removeRedundantLabels();
+
+        return instructions;
+    }
+
+    // generates IR code for main
+    public ArrayList<IR> generateMain(){
+        instructions = generator.generateMainIR();
+
+        removeRedundantLabels();
+
+        return instructions;
+    }
+
     // if there are multiple consecutive labels,
-    // removes all but the last (main label always comes last)
+    // removes all but the last and retargets branches and gotos to it
+    // Function labels always stay, a jump to one would run the prologue again
     public void removeRedundantLabels(){
-        // Two passes:
-        // 1. Find equivalent labels, and remove consecutive labels
-        // 2. Replace instruction label operands with found equivalent labels
-
-        // a label is equivalent to itself.
-        // labels are equivalent if they are consecutive
-
-        // 1. Find equivalent labels, and remove consecutive labels
-        HashMap<Label, Label> newLabel = new HashMap<>();
-        for (int i = instructions.size() - 2; i >= 0; i--) {
-            int first = i + 1;
-            if (instructions.get(first) instanceof Label){
-                Label firstLabel = (Label)instructions.get(first);
-                newLabel.put(firstLabel, firstLabel);
-                while (i >= 0 && instructions.get(i) instanceof Label){
-                    newLabel.put((Label)instructions.get(i), firstLabel);
-                    instructions.remove(i);
-                    i--;
-                }
-            }
-        }
-        // this removes all but the first... but main could get replaced =(
-//        for (int i = 1; i < instructions.size(); i++) {
-//            int first = i - 1;
-//            if (instructions.get(first) instanceof Label){
-//                Label firstLabel = (Label)instructions.get(first);
-//                newLabel.put(firstLabel, firstLabel);
-//                while (i < instructions.size() && instructions.get(i) instanceof Label){
-//                    newLabel.put((Label)instructions.get(i), firstLabel);
-//                    instructions.remove(i);
-//                }
-//            }
-//        }
-
-        // 2. Replace instruction label operands with found equivalent labels
-        for (IR instruction : instructions) {
-            if (instruction instanceof controlFlowInstruction){
-                if (instruction instanceof branch){
-                    branch inst = ((branch)instruction);
-                    inst.labelOp.label = newLabel.get(inst.labelOp.label);
+        instructions = mergeLabels(instructions);
+    }
+
+    // Linear time: builds the compacted stream instead of removing from the middle of the list
+    public static ArrayList<IR> mergeLabels(ArrayList<IR> instructions){
+        IdentityHashMap<Label, Label> newLabel = new IdentityHashMap<>();
+        ArrayList<IR> out = new ArrayList<>(instructions.size());
+        for (int i = 0; i < instructions.size(); i++){
+            IR instruction = instructions.get(i);
+            if (instruction instanceof SharedLabel){
+                int last = i;
+                while (last + 1 < instructions.size() && instructions.get(last + 1) instanceof SharedLabel){
+                    last++;
                 }
-                else if (instruction instanceof goTo){
-                    goTo inst = ((goTo)instruction);
-                    inst.labelOp.label = newLabel.get(inst.labelOp.label);
+                Label kept = (Label)instructions.get(last);
+                for (int j = i; j < last; j++){
+                    newLabel.put((Label)instructions.get(j), kept);
                 }
-                // FUNCTION CALL LABELS ARE NEVER CONSECUTIVE
-                // AND ret never has a label as its operand
-//                else if (instruction instanceof call){
-//                    call inst = ((call)instruction);
-//                    inst.labelOp.label = newLabel.get(inst.labelOp.label);
-//                }
-//                else if (instruction instanceof callr){
-//                    callr inst = ((callr)instruction);
-//                    inst.labelOp.label = newLabel.get(inst.labelOp.label);
-//                }
+                instruction = kept;
+                i = last;
             }
+            out.add(instruction);
         }
 
+        if (!newLabel.isEmpty()){
+            for (IR instruction : out){
+                LabelOp target = null;
+                if (instruction instanceof branch)
+                    target = ((branch)instruction).labelOp;
+                else if (instruction instanceof goTo)
+                    target = ((goTo)instruction).labelOp;
+                // function call labels are never merged
+                if (target != null && newLabel.containsKey(target.label))
+                    target.label = newLabel.get(target.label);
+            }
+        }
+        return out;
     }
 
 
 
+    // Textual IR listing, as written to .ir files
+    public static String streamToString(ArrayList<IR> stream){
+        StringBuilder str = new StringBuilder();
+        for (IR i : stream) {
+            if (i instanceof Label)
+                str.append(i).append("\n");
+            else
+                str.append("    ").append(i).append("\n");
+        }
+        return str.toString();
+    }
+
     public String toString(){
         String out = "";
         for (IR i : instructions){
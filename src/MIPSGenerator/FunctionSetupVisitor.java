@@ -3,6 +3,7 @@ package MIPSGenerator;
 import IR.*;
 
 // Performs analysis needed for function code generation
+// Every register an instruction writes goes into usedRegs, the prologue saves those for the caller
 public class FunctionSetupVisitor implements IRVisitor {
     FunctionPrologue currentFunction = null;
 
@@ -54,6 +55,7 @@ public class FunctionSetupVisitor implements IRVisitor {
 
     public void visit(array_load i) {
         if (currentFunction != null) {
+            currentFunction.addOperand(i.left);
             currentFunction.addOperand(i.var);
             currentFunction.addOperand(i.index);
         }
@@ -76,10 +78,14 @@ public class FunctionSetupVisitor implements IRVisitor {
     }
 
     public void visit(call i) {
+        if (currentFunction != null) {
+            currentFunction.isLeaf = false;
+        }
     }
 
     public void visit(callr i) {
         if (currentFunction != null) {
+            currentFunction.isLeaf = false;
             currentFunction.addOperand(i.retVal);
         }
     }
@@ -133,9 +139,16 @@ public class FunctionSetupVisitor implements IRVisitor {
         }
     }
 
+    public void visit(select i) {
+        if (currentFunction != null) {
+            currentFunction.addOperand(i.result);
+        }
+    }
+
     public void visit(load i) {
         if (currentFunction != null) {
             currentFunction.addOperand(i.dst);
+            currentFunction.addOperand(i.src);
         }
     }
 
@@ -3,12 +3,21 @@ package MIPSGenerator;
 import IR.IR;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 
 public class MIPSGen {
 
     private MIPSGen(){}
 
     public static String generate(ArrayList<IR> instructions){
+        LinkedHashMap<String, String> dataSection = new LinkedHashMap<>();
+        String text = generateText(instructions, dataSection);
+        return link(text, dataSection);
+    }
+
+    // Generates the .text of a stream of whole functions
+    // and adds the memory the code refers to into dataSection, as name -> .data directive
+    public static String generateText(ArrayList<IR> instructions, LinkedHashMap<String, String> dataSection){
 
         FunctionSetupVisitor setup = new FunctionSetupVisitor();
         MIPSGenVisitor v = new MIPSGenVisitor();
@@ -25,6 +34,46 @@ public class MIPSGen {
             }
         }
 
+        // Generate actual assembly
+        for (AssemblyHelper s : v.assemblyHelp){
+            if (s.getOpcode().equals("main:")) {
+                assembly.append(".globl main\n");
+            }
+            assembly.append(s.toString() + "\n");
+            if (s.getOpcode().equals("main:")) {
+                assembly.append("sw $ra, 0($sp)\n");
+                assembly.append("sub $sp, $sp, 4\n");
+            }
+        }
+
+        for (String s : v.dataSection.keySet()) {
+            int size = v.dataSection.get(s);
+            String directive;
+            if (v.dataValues.containsKey(s)) {
+                directive = v.dataValues.get(s) + (size > 1 ? ":" + size : "");
+            } else if (size > 1) {
+                directive = ".space " + size*4;
+            } else {
+                directive = ".word 0";
+            }
+            addData(dataSection, s, directive);
+        }
+        return assembly.toString();
+    }
+
+    // Every function that uses a global lists it, the one directive giving it a value wins
+    public static void addData(LinkedHashMap<String, String> dataSection, String name, String directive){
+        String old = dataSection.get(name);
+        if (old == null || old.equals(".word 0") || old.startsWith(".space"))
+            dataSection.put(name, directive);
+    }
+
+    // Wraps the generated .text of all functions (main last)
+    // with the runtime library and the .data section
+    public static String link(String text, LinkedHashMap<String, String> dataSection){
+
+        StringBuilder assembly = new StringBuilder();
+
         assembly.append(".text\n");
 
         // Generate printi
@@ -42,31 +91,15 @@ public class MIPSGen {
         assembly.append("lwc1 $f12, 0($sp)\n");
         assembly.append("jal $ra\n");
 
-        // Generate actual assembly
-        for (AssemblyHelper s : v.assemblyHelp){
-            if (s.getOpcode().equals("main:")) {
-                assembly.append(".globl main\n");
-            }
-            assembly.append(s.toString() + "\n");
-            if (s.getOpcode().equals("main:")) {
-                assembly.append("sw $ra, 0($sp)\n");
-                assembly.append("sub $sp, $sp, 4\n");
-            }
-        }
+        assembly.append(text);
+
         assembly.append("add $sp, $sp, 4\n");
         assembly.append("lw $ra, 0($sp)\n");
         assembly.append("jal $ra\n");
         assembly.append("\n.data\n");
-        for (String s : v.dataSection.keySet()) {
+        for (String s : dataSection.keySet()) {
             if (s != null) {
-                String entry = s + ": ";
-                int size = v.dataSection.get(s);
-                if (size > 1) {
-                    entry = entry + ".space " + size*4 + "\n";
-                } else {
-                    entry = entry + ".word 0\n";
-                }
-                assembly.append(entry);
+                assembly.append(s + ": " + dataSection.get(s) + "\n");
             }
         }
         return assembly.toString();
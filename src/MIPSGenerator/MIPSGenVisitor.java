@@ -1,14 +1,17 @@
 package MIPSGenerator;
 
+import Config.Config;
 import IR.*;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.jar.Attributes;
 
 public class MIPSGenVisitor implements IRVisitor {
 
 	public ArrayList<AssemblyHelper> assemblyHelp = new ArrayList<>();
-    public HashMap<String, Integer> dataSection = new HashMap<>();
+    public LinkedHashMap<String, Integer> dataSection = new LinkedHashMap<>();
+    // Starting values of static globals, as the directive without the count
+    public LinkedHashMap<String, String> dataValues = new LinkedHashMap<>();
 
     private FunctionPrologue currentFunction = null;
 
@@ -59,6 +62,12 @@ public class MIPSGenVisitor implements IRVisitor {
 	}
 
 	public void visit(mult i) {
+        if (i.isInt() && multByConstant(i)) {
+            if (i.result instanceof Var) {
+                dataSection.putIfAbsent(((Var) i.result).name, 1);
+            }
+            return;
+        }
         if (i.isInt()) {
             if (i.right instanceof IntImmediate && i.left instanceof IntImmediate) {
                 emit(new AssemblyHelper("li", "$t8", i.left.toString(), ""));
@@ -83,6 +92,12 @@ public class MIPSGenVisitor implements IRVisitor {
 	}
 
 	public void visit(div i) {
+        if (i.isInt() && divByConstant(i)) {
+            if (i.result instanceof Var) {
+                dataSection.putIfAbsent(((Var) i.result).name, 1);
+            }
+            return;
+        }
         if (i.isInt()) {
             if (i.right instanceof IntImmediate && i.left instanceof IntImmediate) {
                 emit(new AssemblyHelper("li", "$t8", i.left.toString(), ""));
@@ -106,6 +121,147 @@ public class MIPSGenVisitor implements IRVisitor {
         }
 	}
 
+    // Multiplication and division by a constant without mult/div, from -O1 on
+    //     x * 2^a             sll
+    //     x * (2^a +/- 2^b)   two shifts and an add or sub (negated for negative constants)
+    //     x / 2^k             sra, rounding towards zero for negative x
+    //     x / d               multiply by a magic number and keep the high word
+    //                         (Hacker's Delight, chapter 10)
+    // addu/subu because a mult doesn't trap on overflow either.
+    private boolean multByConstant(mult i) {
+        if (Config.OPT_LEVEL < 1)
+            return false;
+        String x;
+        int c;
+        if (i.right instanceof IntImmediate && !(i.left instanceof IntImmediate)) {
+            x = i.left.toString();
+            c = ((IntImmediate) i.right).val;
+        } else if (i.left instanceof IntImmediate && !(i.right instanceof IntImmediate)) {
+            x = i.right.toString();
+            c = ((IntImmediate) i.left).val;
+        } else {
+            return false;
+        }
+        String result = i.result.toString();
+
+        boolean negate = c < 0;
+        if (c == Integer.MIN_VALUE)
+            return false;
+        if (negate)
+            c = -c;
+
+        int low = Integer.numberOfTrailingZeros(c);
+        long run = (long) c + (c & -c);
+        if (c == 0) {
+            emit(new AssemblyHelper("li", result, "0", ""));
+            return true;
+        } else if (c == 1) {
+            emit(new AssemblyHelper(negate ? "subu" : "move", result, negate ? "$0" : x, negate ? x : ""));
+            return true;
+        } else if (Integer.bitCount(c) == 1) {
+            emit(new AssemblyHelper("sll", result, x, "" + low));
+        } else if (Integer.bitCount(c) == 2) {
+            int high = 31 - Integer.numberOfLeadingZeros(c);
+            emit(new AssemblyHelper("sll", "$t8", x, "" + high));
+            emit(new AssemblyHelper("addu", result, "$t8", shifted(x, low)));
+        } else if (Long.bitCount(run) == 1) {
+            // a run of ones, 2^high - 2^low
+            int high = Long.numberOfTrailingZeros(run);
+            emit(new AssemblyHelper("sll", "$t8", x, "" + high));
+            emit(new AssemblyHelper("subu", result, "$t8", shifted(x, low)));
+        } else {
+            return false;
+        }
+        if (negate)
+            emit(new AssemblyHelper("subu", result, "$0", result));
+        return true;
+    }
+
+    // x << n in $t9, or just x
+    private String shifted(String x, int n) {
+        if (n == 0)
+            return x;
+        emit(new AssemblyHelper("sll", "$t9", x, "" + n));
+        return "$t9";
+    }
+
+    private boolean divByConstant(div i) {
+        if (Config.OPT_LEVEL < 1 || !(i.right instanceof IntImmediate) || i.left instanceof IntImmediate)
+            return false;
+        String x = i.left.toString();
+        String result = i.result.toString();
+        int d = ((IntImmediate) i.right).val;
+        if (d == 0 || d == Integer.MIN_VALUE)
+            return false;
+
+        int abs = Math.abs(d);
+        if (abs == 1) {
+            emit(new AssemblyHelper(d < 0 ? "subu" : "move", result, d < 0 ? "$0" : x, d < 0 ? x : ""));
+        } else if (Integer.bitCount(abs) == 1) {
+            // add 2^k - 1 to negative x first so the shift rounds towards zero
+            int k = Integer.numberOfTrailingZeros(abs);
+            if (k > 1)
+                emit(new AssemblyHelper("sra", "$t8", x, "31"));
+            emit(new AssemblyHelper("srl", "$t8", k > 1 ? "$t8" : x, "" + (32 - k)));
+            emit(new AssemblyHelper("addu", "$t8", x, "$t8"));
+            emit(new AssemblyHelper("sra", result, "$t8", "" + k));
+            if (d < 0)
+                emit(new AssemblyHelper("subu", result, "$0", result));
+        } else {
+            long[] magic = magic(d);
+            int m = (int) magic[0];
+            int shift = (int) magic[1];
+            emit(new AssemblyHelper("li", "$t8", "" + m, ""));
+            emit(new AssemblyHelper("mult", x, "$t8", ""));
+            emit(new AssemblyHelper("mfhi", "$t9", "", ""));
+            if (d > 0 && m < 0)
+                emit(new AssemblyHelper("addu", "$t9", "$t9", x));
+            else if (d < 0 && m > 0)
+                emit(new AssemblyHelper("subu", "$t9", "$t9", x));
+            if (shift > 0)
+                emit(new AssemblyHelper("sra", "$t9", "$t9", "" + shift));
+            // negative quotients are one too small
+            emit(new AssemblyHelper("srl", "$t8", "$t9", "31"));
+            emit(new AssemblyHelper("addu", result, "$t9", "$t8"));
+        }
+        return true;
+    }
+
+    // The magic number and shift for signed division by d, 2 <= |d| < 2^31 and not a power of 2
+    // All arithmetic is on unsigned 32 bit values, kept in longs.
+    private static long[] magic(int d) {
+        final long two31 = 0x80000000L;
+        final long mask = 0xFFFFFFFFL;
+        long ad = Math.abs((long) d);
+        long t = two31 + (d < 0 ? 1 : 0);
+        long anc = t - 1 - t % ad;
+        int p = 31;
+        long q1 = two31 / anc, r1 = two31 - q1 * anc;
+        long q2 = two31 / ad, r2 = two31 - q2 * ad;
+        long delta;
+        do {
+            p++;
+            q1 = (2 * q1) & mask;
+            r1 = (2 * r1) & mask;
+            if (r1 >= anc) {
+                q1++;
+                r1 -= anc;
+            }
+            q2 = (2 * q2) & mask;
+            r2 = (2 * r2) & mask;
+            if (r2 >= ad) {
+                q2++;
+                r2 -= ad;
+            }
+            delta = ad - r2;
+        } while (q1 < delta || (q1 == delta && r1 == 0));
+
+        int m = (int) (q2 + 1);
+        if (d < 0)
+            m = -m;
+        return new long[]{ m, p - 32 };
+    }
+
 	public void visit(and i) {
         if (i.right instanceof IntImmediate && i.left instanceof IntImmediate) {
             emit(new AssemblyHelper("li", i.result.toString(), "" + ((((IntImmediate) i.left).val) & ((IntImmediate) i.right).val), ""));
@@ -161,7 +317,10 @@ public class MIPSGenVisitor implements IRVisitor {
             } else if (i.var instanceof Register && i.right instanceof Register) {
                 emit(new AssemblyHelper("move", i.var.toString(), i.right.toString(), ""));
             } else {
-                if (((Var) i.var).isLocal) {
+                if (((Var) i.var).isLocal && i.var instanceof TempVar) {
+                    int offset = -currentFunction.temporaryOffsetMap.get(((Var) i.var).name) * 4;
+                    emit(new AssemblyHelper("sw", i.right.toString(), "" + offset + "($fp)", ""));
+                } else if (((Var) i.var).isLocal) {
                     int offset = currentFunction.argumentOffsetMap.get(((Var)i.var).name);
                     if (offset <= 2) {
                         emit(new AssemblyHelper("move", "$a" + offset, i.right.toString(), ""));
@@ -175,7 +334,10 @@ public class MIPSGenVisitor implements IRVisitor {
             }
         } else {
             if (i.var instanceof Var) {
-                if (((Var) i.var).isLocal) {
+                if (((Var) i.var).isLocal && i.var instanceof TempVar) {
+                    int offset = -currentFunction.temporaryOffsetMap.get(((Var) i.var).name) * 4;
+                    emit(new AssemblyHelper("s.s", i.right.toString(), "" + offset + "($fp)", ""));
+                } else if (((Var) i.var).isLocal) {
                     int offset = currentFunction.argumentOffsetMap.get(((Var)i.var).name);
                     if (offset <= 2) {
                         emit(new AssemblyHelper("mfc1", "$a" + offset, i.right.toString(), ""));
@@ -196,14 +358,18 @@ public class MIPSGenVisitor implements IRVisitor {
 	}
 
 	public void visit(array_load i) {
+        String offset = "$t8";
         if (i.index instanceof IntImmediate) {
             emit(new AssemblyHelper("li", "$t8", i.index.toString(),""));
-            emit(new AssemblyHelper("sll", "$t8", "$t8", "2"));
-        } else {
+            if (!i.byteIndex)
+                emit(new AssemblyHelper("sll", "$t8", "$t8", "2"));
+        } else if (!i.byteIndex) {
             emit(new AssemblyHelper("sll", "$t8", i.index.toString(), "2"));
+        } else {
+            offset = i.index.toString();
         }
         emit(new AssemblyHelper("la", "$t9", i.var.toString(), ""));
-        emit(new AssemblyHelper("add", "$t8", "$t8", "$t9"));
+        emit(new AssemblyHelper("add", "$t8", offset, "$t9"));
         if (i.isInt()) {
             emit(new AssemblyHelper("lw", i.left.toString(), "0($t8)", ""));
         } else {
@@ -212,15 +378,22 @@ public class MIPSGenVisitor implements IRVisitor {
 	}
 
 	public void visit(array_store i) {
+        String offset = "$t8";
         if (i.index instanceof IntImmediate) {
             emit(new AssemblyHelper("li", "$t8", i.index.toString(),""));
-            emit(new AssemblyHelper("sll", "$t8", "$t8", "2"));
-        } else {
+            if (!i.byteIndex)
+                emit(new AssemblyHelper("sll", "$t8", "$t8", "2"));
+        } else if (!i.byteIndex) {
             emit(new AssemblyHelper("sll", "$t8", i.index.toString(), "2"));
+        } else {
+            offset = i.index.toString();
         }
         emit(new AssemblyHelper("la", "$t9", i.var.toString(), ""));
-        emit(new AssemblyHelper("add", "$t8", "$t8", "$t9"));
-        if (i.isInt()) {
+        emit(new AssemblyHelper("add", "$t8", offset, "$t9"));
+        if (i.right instanceof IntImmediate) {
+            emit(new AssemblyHelper("li", "$t9", i.right.toString(), ""));
+            emit(new AssemblyHelper("sw", "$t9", "0($t8)", ""));
+        } else if (i.isInt()) {
             emit(new AssemblyHelper("sw", i.right.toString(), "0($t8)", ""));
         } else {
             emit(new AssemblyHelper("swc1", i.right.toString(), "0($t8)", ""));
@@ -230,6 +403,9 @@ public class MIPSGenVisitor implements IRVisitor {
 	public void visit(array_assign i) {
 		//emit(new AssemblyHelper("array_assign", i.var.toString(), i.count.toString(), i.val.toString()));
         dataSection.putIfAbsent(i.var.name, i.count.val);
+        if (i.isStatic) {
+            dataValues.put(i.var.name, (i.isInt() ? ".word " : ".float ") + i.val.toString());
+        }
 	}
 
 	public void visit(goTo i) {
@@ -237,129 +413,35 @@ public class MIPSGenVisitor implements IRVisitor {
 	}
 
 	public void visit(call i) {
-        // If we are in a function, save our arguments before loading new ones
-        if (currentFunction != null) {
-            if (currentFunction.argumentCount > 0 && i.args.size() > 0) {
-                int baseOffset = currentFunction.usedRegsCount * 4 + 12;
-                emit(new AssemblyHelper("sw", "$a0", "" + baseOffset + "($fp)", ""));
-                if (currentFunction.argumentCount > 1 && i.args.size() > 1) {
-                    baseOffset += 4;
-                    emit(new AssemblyHelper("sw", "$a0", "" + baseOffset + "($fp)", ""));
-                    if (currentFunction.argumentCount > 2 && i.args.size() > 2) {
-                        baseOffset += 4;
-                        emit(new AssemblyHelper("sw", "$a0", "" + baseOffset + "($fp)", ""));
-                    }
-                }
-            }
+        if (i.tail && currentFunction != null) {
+            tailCall(i);
+            return;
         }
+        saveArguments(i);
 
         // Expand stack to hold arguments
         emit(new AssemblyHelper("sub", "$sp", "$sp", "" + (i.args.size() * 4)));
 
-        // Now load the arguments
-        int arg = 0;
-        for (Operand o : i.args) {
-            if (arg < 3) {
-                if (o instanceof Register) {
-                    if (o.isInt()) {
-                        emit(new AssemblyHelper("move", "$a" + arg, o.toString(), ""));
-                    } else {
-                        emit(new AssemblyHelper("mfc1", "$a" + arg, o.toString(), ""));
-                    }
-                } else if (o instanceof Immediate) {
-                    emit(new AssemblyHelper("li", "$a" + arg, o.toString(), ""));
-                } else {
-                    if (((Var)o).isLocal) {
-                        if (o instanceof NamedVar) {
-                            int baseOffset = currentFunction.usedRegsCount * 4 + 12;
-                            baseOffset += currentFunction.argumentOffsetMap.get(((NamedVar) o).name) * 4;
-                            emit(new AssemblyHelper("lw", "$a" + arg, "" + baseOffset + "($fp)", ""));
-                        } else {
-                            int baseOffset = -currentFunction.temporaryOffsetMap.get(((Var) o).name) * 4;
-                            emit(new AssemblyHelper("lw", "$a" + arg, "" + baseOffset + "($fp)", ""));
-                        }
-                    } else {
-                        emit(new AssemblyHelper("lw", "$a" + arg, o.toString(), ""));
-                    }
-                }
-            } else {
-                // TODO lol
-            }
-            arg++;
-        }
+        loadArguments(i);
 
         emit(new AssemblyHelper("jal", i.fun.label.name, "", ""));
 
-        // Restore our arguments
-        if (currentFunction != null) {
-            if (currentFunction.argumentCount > 0 && i.args.size() > 0) {
-                int baseOffset = currentFunction.usedRegsCount * 4 + 12;
-                emit(new AssemblyHelper("lw", "$a0", "" + baseOffset + "($fp)", ""));
-                if (currentFunction.argumentCount > 1 && i.args.size() > 1) {
-                    baseOffset += 4;
-                    emit(new AssemblyHelper("lw", "$a0", "" + baseOffset + "($fp)", ""));
-                    if (currentFunction.argumentCount > 2 && i.args.size() > 2) {
-                        baseOffset += 4;
-                        emit(new AssemblyHelper("lw", "$a0", "" + baseOffset + "($fp)", ""));
-                    }
-                }
-            }
-        }
+        restoreArguments(i);
 
         emit(new AssemblyHelper("add", "$sp", "$sp", "" + (i.args.size() * 4)));
 	}
 
 	public void visit(callr i) {
-        // If we are in a function, save our arguments before loading new ones
-        if (currentFunction != null) {
-            if (currentFunction.argumentCount > 0 && i.args.size() > 0) {
-                int baseOffset = currentFunction.usedRegsCount * 4 + 12;
-                emit(new AssemblyHelper("sw", "$a0", "" + baseOffset + "($fp)", ""));
-                if (currentFunction.argumentCount > 1 && i.args.size() > 1) {
-                    baseOffset += 4;
-                    emit(new AssemblyHelper("sw", "$a0", "" + baseOffset + "($fp)", ""));
-                    if (currentFunction.argumentCount > 2 && i.args.size() > 2) {
-                        baseOffset += 4;
-                        emit(new AssemblyHelper("sw", "$a0", "" + baseOffset + "($fp)", ""));
-                    }
-                }
-            }
+        if (i.tail && currentFunction != null) {
+            tailCall(i);
+            return;
         }
+        saveArguments(i);
 
         // Expand stack to hold arguments
         emit(new AssemblyHelper("sub", "$sp", "$sp", "" + (i.args.size() * 4)));
 
-        // Now load the arguments
-        int arg = 0;
-        for (Operand o : i.args) {
-            if (arg < 3) {
-                if (o instanceof Register) {
-                    if (o.isInt()) {
-                        emit(new AssemblyHelper("move", "$a" + arg, o.toString(), ""));
-                    } else {
-                        emit(new AssemblyHelper("mfc1", "$a" + arg, o.toString(), ""));
-                    }
-                } else if (o instanceof Immediate) {
-                    emit(new AssemblyHelper("li", "$a" + arg, o.toString(), ""));
-                } else {
-                    if (((Var)o).isLocal) {
-                        if (o instanceof NamedVar) {
-                            int baseOffset = currentFunction.usedRegsCount * 4 + 12;
-                            baseOffset += currentFunction.argumentOffsetMap.get(((NamedVar) o).name) * 4;
-                            emit(new AssemblyHelper("lw", "$a" + arg, "" + baseOffset + "($fp)", ""));
-                        } else {
-                            int baseOffset = -currentFunction.temporaryOffsetMap.get(((Var) o).name) * 4;
-                            emit(new AssemblyHelper("lw", "$a" + arg, "" + baseOffset + "($fp)", ""));
-                        }
-                    } else {
-                        emit(new AssemblyHelper("lw", "$a" + arg, o.toString(), ""));
-                    }
-                }
-            } else {
-                // TODO lol
-            }
-            arg++;
-        }
+        loadArguments(i);
 
         emit(new AssemblyHelper("jal", i.fun.label.name, "", ""));
 
@@ -372,21 +454,7 @@ public class MIPSGenVisitor implements IRVisitor {
             }
         }
 
-        // Restore our arguments
-        if (currentFunction != null) {
-            if (currentFunction.argumentCount > 0 && i.args.size() > 0) {
-                int baseOffset = currentFunction.usedRegsCount * 4 + 12;
-                emit(new AssemblyHelper("lw", "$a0", "" + baseOffset + "($fp)", ""));
-                if (currentFunction.argumentCount > 1 && i.args.size() > 1) {
-                    baseOffset += 4;
-                    emit(new AssemblyHelper("lw", "$a0", "" + baseOffset + "($fp)", ""));
-                    if (currentFunction.argumentCount > 2 && i.args.size() > 2) {
-                        baseOffset += 4;
-                        emit(new AssemblyHelper("lw", "$a0", "" + baseOffset + "($fp)", ""));
-                    }
-                }
-            }
-        }
+        restoreArguments(i);
 
         emit(new AssemblyHelper("add", "$sp", "$sp", "" + (i.args.size() * 4)));
 	}
@@ -468,11 +536,117 @@ public class MIPSGenVisitor implements IRVisitor {
         emit(new AssemblyHelper(i.name.toString() + ":", "", "", ""));
 	}
 
-    public void visit(FunctionEpilogue i) {
+    // If we are in a function, save our arguments before loading new ones
+    private void saveArguments(callInstruction i) {
+        if (currentFunction != null) {
+            if (currentFunction.argumentCount > 0 && i.args.size() > 0) {
+                int baseOffset = currentFunction.usedRegsCount * 4 + 12;
+                emit(new AssemblyHelper("sw", "$a0", "" + baseOffset + "($fp)", ""));
+                if (currentFunction.argumentCount > 1 && i.args.size() > 1) {
+                    baseOffset += 4;
+                    emit(new AssemblyHelper("sw", "$a1", "" + baseOffset + "($fp)", ""));
+                    if (currentFunction.argumentCount > 2 && i.args.size() > 2) {
+                        baseOffset += 4;
+                        emit(new AssemblyHelper("sw", "$a2", "" + baseOffset + "($fp)", ""));
+                    }
+                }
+            }
+        }
+    }
+
+    // Load the arguments of a call into $a0..$a2
+    private void loadArguments(callInstruction i) {
+        int arg = 0;
+        for (Operand o : i.args) {
+            if (arg < 3) {
+                if (o instanceof Register) {
+                    if (o.isInt()) {
+                        emit(new AssemblyHelper("move", "$a" + arg, o.toString(), ""));
+                    } else {
+                        emit(new AssemblyHelper("mfc1", "$a" + arg, o.toString(), ""));
+                    }
+                } else if (o instanceof Immediate) {
+                    emit(new AssemblyHelper("li", "$a" + arg, o.toString(), ""));
+                } else {
+                    if (((Var)o).isLocal) {
+                        if (o instanceof NamedVar) {
+                            int baseOffset = currentFunction.usedRegsCount * 4 + 12;
+                            baseOffset += currentFunction.argumentOffsetMap.get(((NamedVar) o).name) * 4;
+                            emit(new AssemblyHelper("lw", "$a" + arg, "" + baseOffset + "($fp)", ""));
+                        } else {
+                            int baseOffset = -currentFunction.temporaryOffsetMap.get(((Var) o).name) * 4;
+                            emit(new AssemblyHelper("lw", "$a" + arg, "" + baseOffset + "($fp)", ""));
+                        }
+                    } else {
+                        emit(new AssemblyHelper("lw", "$a" + arg, o.toString(), ""));
+                        dataSection.putIfAbsent(((Var) o).name, 1);
+                    }
+                }
+            } else {
+                // TODO lol
+            }
+            arg++;
+        }
+    }
+
+    // Restore our arguments after a call
+    private void restoreArguments(callInstruction i) {
+        if (currentFunction != null) {
+            if (currentFunction.argumentCount > 0 && i.args.size() > 0) {
+                int baseOffset = currentFunction.usedRegsCount * 4 + 12;
+                emit(new AssemblyHelper("lw", "$a0", "" + baseOffset + "($fp)", ""));
+                if (currentFunction.argumentCount > 1 && i.args.size() > 1) {
+                    baseOffset += 4;
+                    emit(new AssemblyHelper("lw", "$a1", "" + baseOffset + "($fp)", ""));
+                    if (currentFunction.argumentCount > 2 && i.args.size() > 2) {
+                        baseOffset += 4;
+                        emit(new AssemblyHelper("lw", "$a2", "" + baseOffset + "($fp)", ""));
+                    }
+                }
+            }
+        }
+    }
+
+    // A call in tail position: the arguments go into $a0..$a2 as usual, then our frame is popped
+    // and the jump to the callee leaves $ra pointing at our caller, which gets the callee's result.
+    // The callee takes no more arguments than we do (see TailCallPass), so it only ever saves
+    // them in the stack space our caller set aside for ours.
+    private void tailCall(callInstruction i) {
+        saveArguments(i);
+        loadArguments(i);
+        popFrame();
+        emit(new AssemblyHelper("j", i.fun.label.name, "", ""));
+    }
+
+    // A leaf function never changes $ra, so it doesn't save it. When it also keeps no temporaries
+    // in memory and gets all its arguments in registers nothing is addressed off $fp, the frame
+    // is just the registers it saves, below $sp.
+    private static boolean needsFramePointer(FunctionPrologue f) {
+        return !f.isLeaf || f.temporaryCount > 0 || f.argumentCount > 3;
+    }
+
+    // Undo the prologue of the current function, everything but the return
+    private void popFrame() {
+        if (!needsFramePointer(currentFunction)) {
+            restoreRegisters();
+            return;
+        }
+
         // Restore sp
         emit(new AssemblyHelper("move", "$sp", "$fp", ""));
+        restoreRegisters();
 
-        // Restore saved temporary registers
+        // Pop frame pointer and return address
+        emit(new AssemblyHelper("add", "$sp", "$sp", "4"));
+        emit(new AssemblyHelper("lw", "$fp", "0($sp)", ""));
+        emit(new AssemblyHelper("add", "$sp", "$sp", "4"));
+        if (!currentFunction.isLeaf) {
+            emit(new AssemblyHelper("lw", "$ra", "0($sp)", ""));
+        }
+    }
+
+    // Restore saved temporary registers
+    private void restoreRegisters() {
         for (Register.Reg reg : currentFunction.usedRegsOffsetMap.keySet()) {
             if (reg.isIntegerReg()) {
                 emit(new AssemblyHelper("lw", reg.toString(), ""
@@ -482,13 +656,13 @@ public class MIPSGenVisitor implements IRVisitor {
                         + ((currentFunction.usedRegsOffsetMap.get(reg))*4+4) + "($sp)", ""));
             }
         }
-        emit(new AssemblyHelper("add", "$sp", "$sp", "" + ((currentFunction.usedRegsCount) * 4)));
+        if (currentFunction.usedRegsCount > 0) {
+            emit(new AssemblyHelper("add", "$sp", "$sp", "" + ((currentFunction.usedRegsCount) * 4)));
+        }
+    }
 
-        // Pop frame pointer and return address
-        emit(new AssemblyHelper("add", "$sp", "$sp", "4"));
-        emit(new AssemblyHelper("lw", "$fp", "0($sp)", ""));
-        emit(new AssemblyHelper("add", "$sp", "$sp", "4"));
-        emit(new AssemblyHelper("lw", "$ra", "0($sp)", ""));
+    public void visit(FunctionEpilogue i) {
+        popFrame();
 
         // Return
         emit(new AssemblyHelper("jr", "$ra", "", ""));
@@ -500,31 +674,44 @@ public class MIPSGenVisitor implements IRVisitor {
         // Emit label
         emit(new AssemblyHelper(i.name.toString() + ":", "", "", ""));
 
-        // Push the return address
-        emit(new AssemblyHelper("sw", "$ra", "0($sp)", ""));
+        currentFunction = i;
+        if (!needsFramePointer(i)) {
+            saveRegisters();
+            return;
+        }
+
+        // Push the return address, a leaf only keeps its slot so the arguments are where they always are
+        if (!i.isLeaf) {
+            emit(new AssemblyHelper("sw", "$ra", "0($sp)", ""));
+        }
         emit(new AssemblyHelper("sub", "$sp", "$sp", "4"));
 
         // Push the frame pointer
         emit(new AssemblyHelper("sw", "$fp", "0($sp)", ""));
         emit(new AssemblyHelper("sub", "$sp", "$sp", "4"));
 
-        // Save all the gp registers we use
-        emit(new AssemblyHelper("sub", "$sp", "$sp", "" + ((i.usedRegsCount) * 4)));
-        for (Register.Reg reg : i.usedRegsOffsetMap.keySet()) {
-            if (reg.isIntegerReg()) {
-                emit(new AssemblyHelper("sw", reg.toString(), "" + ((i.usedRegsOffsetMap.get(reg))*4+4) + "($sp)", ""));
-            } else {
-                emit(new AssemblyHelper("swc1", reg.toString(), "" + ((i.usedRegsOffsetMap.get(reg))*4+4) + "($sp)", ""));
-            }
-        }
+        saveRegisters();
 
         // Set the frame pointer
         emit(new AssemblyHelper("move", "$fp", "$sp", ""));
 
         // Allocate space for all our temporaries
         emit(new AssemblyHelper("sub", "$sp", "$sp", "" + ((i.temporaryCount) * 4)));
+    }
 
-        currentFunction = i;
+    // Save all the gp registers we use
+    private void saveRegisters() {
+        FunctionPrologue i = currentFunction;
+        if (i.usedRegsCount > 0) {
+            emit(new AssemblyHelper("sub", "$sp", "$sp", "" + ((i.usedRegsCount) * 4)));
+        }
+        for (Register.Reg reg : i.usedRegsOffsetMap.keySet()) {
+            if (reg.isIntegerReg()) {
+                emit(new AssemblyHelper("sw", reg.toString(), "" + ((i.usedRegsOffsetMap.get(reg))*4+4) + "($sp)", ""));
+            } else {
+                emit(new AssemblyHelper("swc1", reg.toString(), "" + ((i.usedRegsOffsetMap.get(reg))*4+4) + "($sp)", ""));
+            }
+        }
     }
 
 	public void visit(intToFloat n) {
@@ -541,6 +728,102 @@ public class MIPSGenVisitor implements IRVisitor {
         emit(new AssemblyHelper("li.s", n.dst.toString(), n.src.toString(), ""));
 	}
 
+    // The compare leaves a flag in $t8, then the result takes the other value and a movn/movz
+    // (flag non-zero/zero) swaps in value. Where the result shares value's register it goes
+    // the other way around, so the first move doesn't overwrite what the second one reads.
+	public void visit(select n) {
+        select.Compare compare = n.compare;
+        Operand left = n.left, right = n.right;
+        // an immediate goes on the right where slti/xori can take it
+        if (left instanceof IntImmediate && !(right instanceof IntImmediate)) {
+            left = n.right;
+            right = n.left;
+            compare = swapped(compare);
+        }
+        // x > c is !(x < c + 1), x <= c is x < c + 1
+        if (right instanceof IntImmediate && (compare == select.Compare.GT || compare == select.Compare.LEQ)
+                && ((IntImmediate) right).val < 32767) {
+            right = new IntImmediate(((IntImmediate) right).val + 1);
+            compare = (compare == select.Compare.GT) ? select.Compare.GEQ : select.Compare.LT;
+        }
+
+        boolean nonZero = true; // whether a non-zero flag means the compare holds
+        switch (compare) {
+            case LT:
+                setFlag("slt", left, right);
+                break;
+            case GT:
+                setFlag("slt", right, left);
+                break;
+            case GEQ:
+                setFlag("slt", left, right);
+                nonZero = false;
+                break;
+            case LEQ:
+                setFlag("slt", right, left);
+                nonZero = false;
+                break;
+            case EQ:
+                setFlag("xor", left, right);
+                nonZero = false;
+                break;
+            case NEQ:
+                setFlag("xor", left, right);
+                break;
+        }
+
+        String result = n.result.toString();
+        Operand value = n.value, other = n.other;
+        if (value.toString().equals(result) && !other.toString().equals(result)) {
+            value = n.other;
+            other = n.value;
+            nonZero = !nonZero;
+        }
+        if (!other.toString().equals(result)) {
+            emit(new AssemblyHelper(other instanceof IntImmediate ? "li" : "move", result, other.toString(), ""));
+        }
+        if (!value.toString().equals(result)) {
+            emit(new AssemblyHelper(nonZero ? "movn" : "movz", result, intRegister(value, "$t9"), "$t8"));
+        }
+        if (n.result instanceof Var) {
+            dataSection.putIfAbsent(((Var) n.result).name, 1);
+        }
+	}
+
+    // The compare that holds with left and right the other way around
+    private static select.Compare swapped(select.Compare compare) {
+        switch (compare) {
+            case LT: return select.Compare.GT;
+            case GT: return select.Compare.LT;
+            case LEQ: return select.Compare.GEQ;
+            case GEQ: return select.Compare.LEQ;
+            default: return compare;
+        }
+    }
+
+    // $t8 := left op right, with the immediate form of op when right fits it
+    private void setFlag(String op, Operand left, Operand right) {
+        if (right instanceof IntImmediate && !(left instanceof IntImmediate)) {
+            int val = ((IntImmediate) right).val;
+            boolean fits = op.equals("slt") ? (val >= -32768 && val <= 32767) : (val >= 0 && val <= 65535);
+            if (fits) {
+                emit(new AssemblyHelper(op + "i", "$t8", left.toString(), right.toString()));
+                return;
+            }
+        }
+        String l = intRegister(left, "$t8");
+        emit(new AssemblyHelper(op, "$t8", l, intRegister(right, "$t9")));
+    }
+
+    // An int operand as a register, immediates are loaded into scratch first
+    private String intRegister(Operand o, String scratch) {
+        if (o instanceof IntImmediate) {
+            emit(new AssemblyHelper("li", scratch, o.toString(), ""));
+            return scratch;
+        }
+        return o.toString();
+    }
+
 	public void visit(load n) {
         if (n.src.isLocal) {
             if (n.src instanceof NamedVar) {
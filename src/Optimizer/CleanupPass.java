@@ -0,0 +1,151 @@
+package Optimizer;
+
+import IR.*;
+import IRGenerator.IRGen;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+// Tidies up the control flow of a function, each step is a linear walk over the instructions
+//     1. merges consecutive labels
+//     2. threads jumps: a branch or goto to a label that's followed by "goto L" goes to L directly
+//     3. deletes instructions that can't be reached (after a goto, or a return in a function)
+//        as well as labels nothing jumps to and jumps to the very next instruction
+// Step 3 repeats while it finds something, deleting a backward jump can free up more code.
+// Deleting a jump from between two labels leaves them next to each other, so they're merged
+// once more at the end (the allocators and FlowGraph expect no consecutive labels).
+
+public class CleanupPass extends FunctionPass {
+
+    public String name(){
+        return "cleanup";
+    }
+
+    public boolean run(IRFunction function){
+        int size = function.instructions.size();
+        function.instructions = IRGen.mergeLabels(function.instructions);
+        boolean changed = function.instructions.size() != size;
+
+        if (threadJumps(function))
+            changed = true;
+        while (removeDeadCode(function)){
+            changed = true;
+        }
+        if (changed)
+            function.instructions = IRGen.mergeLabels(function.instructions);
+        return changed;
+    }
+
+    private static LabelOp target(IR instruction){
+        if (instruction instanceof branch)
+            return ((branch)instruction).labelOp;
+        if (instruction instanceof goTo)
+            return ((goTo)instruction).labelOp;
+        return null;
+    }
+
+    private boolean threadJumps(IRFunction function){
+        ArrayList<IR> instructions = function.instructions;
+
+        // labels whose first instruction is a goto, and where it goes
+        IdentityHashMap<Label, Label> forward = new IdentityHashMap<>();
+        for (int i = 0; i < instructions.size(); i++){
+            if (instructions.get(i) instanceof SharedLabel){
+                int next = i + 1;
+                while (next < instructions.size() && instructions.get(next) instanceof Label){
+                    next++;
+                }
+                if (next < instructions.size() && instructions.get(next) instanceof goTo)
+                    forward.put((Label)instructions.get(i), ((goTo)instructions.get(next)).labelOp.label);
+            }
+        }
+        if (forward.isEmpty())
+            return false;
+
+        // final destination of every label, following each chain once
+        IdentityHashMap<Label, Label> destination = new IdentityHashMap<>();
+        for (Label start : forward.keySet()){
+            if (destination.containsKey(start))
+                continue;
+            ArrayList<Label> chain = new ArrayList<>();
+            IdentityHashMap<Label, Boolean> onChain = new IdentityHashMap<>();
+            Label l = start;
+            while (forward.containsKey(l) && !onChain.containsKey(l) && !destination.containsKey(l)){
+                chain.add(l);
+                onChain.put(l, true);
+                l = forward.get(l);
+            }
+            // a goto loop (L: goto L) has no better destination than where it already is
+            Label end = destination.containsKey(l) ? destination.get(l) : l;
+            for (Label c : chain){
+                destination.put(c, end);
+            }
+        }
+
+        boolean changed = false;
+        for (IR instruction : instructions){
+            LabelOp target = target(instruction);
+            if (target != null && destination.containsKey(target.label) && destination.get(target.label) != target.label){
+                target.label = destination.get(target.label);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean removeDeadCode(IRFunction function){
+        ArrayList<IR> instructions = function.instructions;
+
+        // main's return doesn't leave (the code generator emits nothing for it)
+        // so only a function's return ends a block for good
+        Label epilogue = null;
+        boolean returnLeaves = false;
+        if (function.label() instanceof FunctionPrologue){
+            epilogue = ((FunctionPrologue)function.label()).epilogueLabel;
+            returnLeaves = true;
+        }
+
+        IdentityHashMap<Label, Integer> references = new IdentityHashMap<>();
+        for (IR instruction : instructions){
+            LabelOp target = target(instruction);
+            if (target != null)
+                references.merge(target.label, 1, Integer::sum);
+        }
+
+        ArrayList<IR> out = new ArrayList<>(instructions.size());
+        boolean reachable = true;
+        boolean changed = false;
+        for (int i = 0; i < instructions.size(); i++){
+            IR instruction = instructions.get(i);
+
+            if (instruction instanceof Label){
+                if (instruction instanceof FunctionLabel || instruction == epilogue
+                        || references.getOrDefault(instruction, 0) > 0){
+                    out.add(instruction);
+                    reachable = true;
+                }
+                else {
+                    changed = true;
+                }
+                continue;
+            }
+
+            LabelOp target = target(instruction);
+            boolean jumpsToNext = target != null && i + 1 < instructions.size() && instructions.get(i + 1) == target.label;
+            if (!reachable || jumpsToNext){
+                // labels later on may lose their last reference
+                if (target != null)
+                    references.merge(target.label, -1, Integer::sum);
+                changed = true;
+                continue;
+            }
+
+            out.add(instruction);
+            if (instruction instanceof goTo || (returnLeaves && instruction instanceof ret))
+                reachable = false;
+        }
+
+        function.instructions = out;
+        return changed;
+    }
+}
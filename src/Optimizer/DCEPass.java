@@ -0,0 +1,66 @@
+package Optimizer;
+
+import IR.*;
+import IRGenerator.IRGen;
+import RegisterAllocator.BasicBlock;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+// Dead code elimination
+//
+// Deletes instructions without side effects (binops, assigns, movfi, intToFloat, array_load)
+// whose result isn't live afterwards. Liveness already counts globals as read by calls and,
+// outside main, by the return, so an assignment to a global that another function could see stays.
+// Deleting an instruction can make what it used dead too, so this repeats until nothing goes.
+// A deleted instruction can be all there was between two labels, they're merged before the flow
+// graph is built again (FlowGraph expects no consecutive labels).
+
+public class DCEPass extends FunctionPass {
+
+    public String name(){
+        return "dce";
+    }
+
+    public boolean run(IRFunction function){
+        boolean changed = false;
+        while (removeDead(function)){
+            function.invalidate();
+            changed = true;
+        }
+        return changed;
+    }
+
+    private boolean removeDead(IRFunction function){
+        Liveness liveness = function.liveness();
+        IdentityHashMap<IR, Boolean> dead = new IdentityHashMap<>();
+        for (BasicBlock block : function.cfg().getNodes()){
+            BitSet live = (BitSet)liveness.liveOut(block).clone();
+            ArrayList<IR> instructions = block.instructions();
+            for (int i = instructions.size() - 1; i >= 0; i--){
+                IR instruction = instructions.get(i);
+                if (isPure(instruction) && !live.get(liveness.index(instruction.def()))){
+                    dead.put(instruction, true);
+                    continue;
+                }
+                liveness.transfer(instruction, live);
+            }
+        }
+        if (dead.isEmpty())
+            return false;
+
+        ArrayList<IR> out = new ArrayList<>(function.instructions.size() - dead.size());
+        for (IR i : function.instructions){
+            if (!dead.containsKey(i))
+                out.add(i);
+        }
+        function.instructions = IRGen.mergeLabels(out);
+        return true;
+    }
+
+    private static boolean isPure(IR i){
+        return i.def() != null && (i instanceof binop || i instanceof assign || i instanceof movfi
+                || i instanceof intToFloat || i instanceof array_load || i instanceof select);
+    }
+}
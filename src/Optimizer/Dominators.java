@@ -0,0 +1,132 @@
+package Optimizer;
+
+import RegisterAllocator.BasicBlock;
+import RegisterAllocator.FlowGraph;
+import Util.DiNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+
+// Dominator tree of a function's flow graph
+// (Cooper, Harvey and Kennedy's iterative algorithm over the reverse postorder)
+//
+// Only blocks reachable from the entry block are in the tree,
+// idom() is null for the entry block and for unreachable blocks.
+
+public class Dominators {
+
+    private FlowGraph cfg;
+    private ArrayList<BasicBlock> order = new ArrayList<>();
+    private IdentityHashMap<BasicBlock, Integer> number = new IdentityHashMap<>();
+    private IdentityHashMap<BasicBlock, BasicBlock> idom = new IdentityHashMap<>();
+    private IdentityHashMap<BasicBlock, ArrayList<BasicBlock>> children = new IdentityHashMap<>();
+
+    public Dominators(FlowGraph cfg){
+        this.cfg = cfg;
+
+        postorder(cfg.entryBlock);
+        Collections.reverse(order);
+        for (int i = 0; i < order.size(); i++){
+            number.put(order.get(i), i);
+            children.put(order.get(i), new ArrayList<>());
+        }
+
+        idom.put(cfg.entryBlock, cfg.entryBlock);
+        boolean changed = true;
+        while (changed){
+            changed = false;
+            for (int i = 1; i < order.size(); i++){
+                BasicBlock block = order.get(i);
+                BasicBlock dom = null;
+                for (DiNode p : block.getPred()){
+                    BasicBlock pred = (BasicBlock)p;
+                    if (idom.get(pred) == null)
+                        continue;
+                    dom = (dom == null) ? pred : intersect(pred, dom);
+                }
+                if (idom.get(block) != dom){
+                    idom.put(block, dom);
+                    changed = true;
+                }
+            }
+        }
+        idom.put(cfg.entryBlock, null);
+
+        for (BasicBlock block : order){
+            if (idom.get(block) != null)
+                children.get(idom.get(block)).add(block);
+        }
+    }
+
+    // Iterative, functions can have more blocks than the stack has room for
+    private void postorder(BasicBlock start){
+        IdentityHashMap<BasicBlock, Boolean> seen = new IdentityHashMap<>();
+        ArrayList<BasicBlock> stack = new ArrayList<>();
+        ArrayList<Integer> next = new ArrayList<>();
+        stack.add(start);
+        next.add(0);
+        seen.put(start, true);
+        while (!stack.isEmpty()){
+            int top = stack.size() - 1;
+            BasicBlock block = stack.get(top);
+            int s = next.get(top);
+            if (s < block.getSucc().size()){
+                next.set(top, s + 1);
+                BasicBlock succ = (BasicBlock)block.getSucc().get(s);
+                if (!seen.containsKey(succ)){
+                    seen.put(succ, true);
+                    stack.add(succ);
+                    next.add(0);
+                }
+            }
+            else {
+                order.add(block);
+                stack.remove(top);
+                next.remove(top);
+            }
+        }
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b){
+        while (a != b){
+            while (number.get(a) > number.get(b)){
+                a = idom.get(a);
+            }
+            while (number.get(b) > number.get(a)){
+                b = idom.get(b);
+            }
+        }
+        return a;
+    }
+
+    public BasicBlock idom(BasicBlock block){
+        return idom.get(block);
+    }
+
+    public ArrayList<BasicBlock> children(BasicBlock block){
+        return children.get(block);
+    }
+
+    public boolean isReachable(BasicBlock block){
+        return number.containsKey(block);
+    }
+
+    public boolean dominates(BasicBlock a, BasicBlock b){
+        if (!isReachable(a) || !isReachable(b))
+            return false;
+        while (b != null && b != a){
+            b = idom.get(b);
+        }
+        return b == a;
+    }
+
+    // Reachable blocks, every block comes before the blocks it dominates
+    public ArrayList<BasicBlock> reversePostorder(){
+        return order;
+    }
+
+    public FlowGraph cfg(){
+        return cfg;
+    }
+}
@@ -0,0 +1,9 @@
+package Optimizer;
+
+// A pass that only looks at and changes one function at a time
+// run() returns whether the function changed, the PassManager then drops its cached analyses
+
+public abstract class FunctionPass extends Pass {
+
+    public abstract boolean run(IRFunction function);
+}
@@ -0,0 +1,240 @@
+package Optimizer;
+
+import IR.*;
+import RegisterAllocator.BasicBlock;
+import RegisterAllocator.FlowGraph;
+import Util.DiNode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+// Global value numbering / common subexpression elimination along the dominator tree
+//
+// A table of available computations (binops, array_loads and intToFloats, keyed by
+// operation and operands) is carried from every block into the blocks it dominates.
+// A computation already in the table becomes a copy of the var that holds its value.
+//
+// The IR isn't in SSA form, vars get assigned over and over, so an entry is dropped as soon as
+// its operands or the var holding it change. Entering a block, the entries inherited from its
+// immediate dominator are also checked against everything assigned on the paths in between.
+// Calls can change the globals and arrays their callees write (see ModRef), array_store and
+// array_assign change their array.
+// A callr of a pure function is a computation too, its arguments are its operands and it's
+// dropped when anything it reads changes.
+
+public class GVNPass extends FunctionPass {
+
+    // A computation whose value is available in holder
+    private static class Expression {
+        Var holder;
+        ArrayList<Var> operands = new ArrayList<>();
+        Var array;
+        // for a pure callr, what the callee reads
+        ModRef.Summary reads;
+    }
+
+    // What the instructions of a block can change
+    private static class Kills {
+        IdentityHashMap<Var, Boolean> vars = new IdentityHashMap<>();
+        IdentityHashMap<Var, Boolean> arrays = new IdentityHashMap<>();
+        ModRef.Summary called = new ModRef.Summary();
+    }
+
+    private IdentityHashMap<Var, Integer> ids;
+    private IdentityHashMap<IR, IR> replacements;
+    private ModRef modRef;
+
+    public String name(){
+        return "gvn";
+    }
+
+    public boolean run(IRFunction function){
+        Dominators dom = function.dominators();
+        modRef = function.modRef();
+        FlowGraph cfg = dom.cfg();
+        ids = new IdentityHashMap<>();
+        replacements = new IdentityHashMap<>();
+
+        IdentityHashMap<BasicBlock, Kills> kills = new IdentityHashMap<>();
+        for (BasicBlock block : dom.reversePostorder()){
+            Kills k = new Kills();
+            for (IR i : block.instructions()){
+                addKills(i, k);
+            }
+            kills.put(block, k);
+        }
+
+        // reverse postorder visits every block after its dominator
+        IdentityHashMap<BasicBlock, HashMap<String, Expression>> tables = new IdentityHashMap<>();
+        for (BasicBlock block : dom.reversePostorder()){
+            HashMap<String, Expression> table;
+            BasicBlock idom = dom.idom(block);
+            if (idom == null){
+                table = new HashMap<>();
+            }
+            else {
+                table = new HashMap<>(tables.get(idom));
+                for (BasicBlock between : between(idom, block, dom)){
+                    kill(table, kills.get(between));
+                }
+            }
+
+            for (IR i : block.instructions()){
+                visit(i, table);
+            }
+            tables.put(block, table);
+        }
+
+        if (replacements.isEmpty())
+            return false;
+        for (int i = 0; i < function.instructions.size(); i++){
+            IR replacement = replacements.get(function.instructions.get(i));
+            if (replacement != null)
+                function.instructions.set(i, replacement);
+        }
+        return true;
+    }
+
+    // Blocks on some path from idom to block that doesn't go through idom again,
+    // block itself included when it's in a loop
+    private ArrayList<BasicBlock> between(BasicBlock idom, BasicBlock block, Dominators dom){
+        ArrayList<BasicBlock> found = new ArrayList<>();
+        IdentityHashMap<BasicBlock, Boolean> seen = new IdentityHashMap<>();
+        ArrayList<BasicBlock> stack = new ArrayList<>();
+        for (DiNode p : block.getPred()){
+            stack.add((BasicBlock)p);
+        }
+        while (!stack.isEmpty()){
+            BasicBlock b = stack.remove(stack.size() - 1);
+            if (b == idom || seen.containsKey(b) || !dom.isReachable(b))
+                continue;
+            seen.put(b, true);
+            found.add(b);
+            for (DiNode p : b.getPred()){
+                stack.add((BasicBlock)p);
+            }
+        }
+        return found;
+    }
+
+    private void addKills(IR i, Kills k){
+        if (i.def() != null)
+            k.vars.put(i.def(), true);
+        if (i instanceof callInstruction)
+            k.called.add(modRef.of((callInstruction)i));
+        else if (i instanceof array_store)
+            k.arrays.put(((array_store)i).var, true);
+        else if (i instanceof array_assign)
+            k.arrays.put(((array_assign)i).var, true);
+    }
+
+    private void kill(HashMap<String, Expression> table, Kills k){
+        Iterator<Expression> it = table.values().iterator();
+        while (it.hasNext()){
+            Expression e = it.next();
+            boolean dead = k.vars.containsKey(e.holder) || (isGlobal(e.holder) && k.called.mods(e.holder));
+            if (e.array != null)
+                dead |= k.arrays.containsKey(e.array) || k.called.modsArray(e.array);
+            for (Var v : e.operands){
+                dead |= k.vars.containsKey(v) || (isGlobal(v) && k.called.mods(v));
+            }
+            if (e.reads != null && !dead)
+                dead = reads(e.reads, k);
+            if (dead)
+                it.remove();
+        }
+    }
+
+    private static boolean reads(ModRef.Summary reads, Kills k){
+        if (k.called.changes(reads))
+            return true;
+        for (Var v : k.vars.keySet()){
+            if (isGlobal(v) && reads.refs(v))
+                return true;
+        }
+        for (Var array : k.arrays.keySet()){
+            if (reads.refsArray(array))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isGlobal(Var v){
+        return v instanceof NamedVar && !v.isLocal;
+    }
+
+    private void visit(IR i, HashMap<String, Expression> table){
+        String key = key(i);
+        Var def = i.def();
+
+        boolean replaced = false;
+        if (key != null && table.containsKey(key) && table.get(key).holder != def){
+            replacements.put(i, new assign(def, table.get(key).holder, def.isInt()));
+            replaced = true;
+        }
+
+        Kills k = new Kills();
+        addKills(i, k);
+        kill(table, k);
+
+        if (key != null && !replaced){
+            Expression e = new Expression();
+            e.holder = def;
+            for (int u = 0; u < i.useCount(); u++){
+                e.operands.add(i.useAt(u));
+            }
+            if (i instanceof array_load)
+                e.array = (Var)((array_load)i).var;
+            else if (i instanceof callr)
+                e.reads = modRef.of((callr)i);
+            // "add, i, 1, i" leaves i + 1 in i, not i
+            if (!e.operands.contains(def))
+                table.put(key, e);
+        }
+    }
+
+    private String key(IR i){
+        if (i.def() == null)
+            return null;
+        if (i instanceof binop){
+            binop b = (binop)i;
+            String l = key(b.left), r = key(b.right);
+            boolean commutes = b instanceof add || b instanceof mult || b instanceof and || b instanceof or;
+            if (commutes && l.compareTo(r) > 0){
+                String t = l;
+                l = r;
+                r = t;
+            }
+            return b.op() + (b.isInt() ? "" : "f") + "(" + l + "," + r + ")";
+        }
+        if (i instanceof array_load){
+            array_load a = (array_load)i;
+            return "load" + (a.isInt() ? "" : "f") + "(" + key(a.var) + "," + key(a.index) + ")";
+        }
+        if (i instanceof intToFloat)
+            return "itof(" + key(((intToFloat)i).src) + ")";
+        if (i instanceof callr && modRef.of((callr)i).isPure()){
+            StringBuilder key = new StringBuilder("call " + ((callr)i).fun.label.name + "(");
+            for (Operand arg : ((callr)i).args){
+                key.append(key(arg)).append(",");
+            }
+            return key + ")";
+        }
+        return null;
+    }
+
+    private String key(Operand o){
+        if (o instanceof Var){
+            if (!ids.containsKey(o))
+                ids.put((Var)o, ids.size());
+            return "v" + ids.get(o);
+        }
+        if (o instanceof IntImmediate)
+            return "#" + ((IntImmediate)o).val;
+        if (o instanceof FloatImmediate)
+            return "#f" + Float.floatToIntBits(((FloatImmediate)o).val);
+        return o.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package Optimizer;
+
+import IR.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+// Dead functions and dead globals
+//
+// IR2GenVisitor emits every FunDec, only the functions main reaches through calls are kept.
+// Inlining and specialisation leave plenty of functions nothing calls anymore.
+//
+// A global var that no function reads, or a global array nothing loads from or passes to a
+// function, is never looked at again. The instructions that only give it a value go (DCE then
+// takes what computed the value), so codegen reserves no .data for it.
+
+public class GlobalDCEPass extends ModulePass {
+
+    public String name(){
+        return "global-dce";
+    }
+
+    public boolean run(IRModule module){
+        boolean changed = removeUnreachable(module);
+
+        IdentityHashMap<Var, Boolean> read = new IdentityHashMap<>();
+        for (IRFunction f : module.functions){
+            for (IR i : f.instructions){
+                for (int u = 0; u < i.useCount(); u++){
+                    read.put(i.useAt(u), true);
+                }
+                if (i instanceof array_load)
+                    read.put((Var)((array_load)i).var, true);
+            }
+        }
+
+        for (IRFunction f : module.functions){
+            ArrayList<IR> out = new ArrayList<>(f.instructions.size());
+            for (IR i : f.instructions){
+                Var written = writes(i);
+                if (written == null || !isGlobal(written) || read.containsKey(written))
+                    out.add(i);
+            }
+            if (out.size() != f.instructions.size()){
+                f.instructions = out;
+                f.invalidate();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // Drops the functions main can't reach
+    private static boolean removeUnreachable(IRModule module){
+        HashMap<String, Boolean> reached = new HashMap<>();
+        ArrayList<IRFunction> stack = new ArrayList<>();
+        IRFunction main = module.getFunction("main");
+        if (main == null)
+            return false;
+        reached.put(main.name(), true);
+        stack.add(main);
+        while (!stack.isEmpty()){
+            IRFunction f = stack.remove(stack.size() - 1);
+            for (IR i : f.instructions){
+                if (!(i instanceof callInstruction))
+                    continue;
+                IRFunction callee = module.getFunction(((callInstruction)i).fun.label.name);
+                if (callee != null && !reached.containsKey(callee.name())){
+                    reached.put(callee.name(), true);
+                    stack.add(callee);
+                }
+            }
+        }
+        return module.functions.removeIf(f -> !reached.containsKey(f.name()));
+    }
+
+    // The var an instruction that does nothing else gives a value, or null
+    private static Var writes(IR i){
+        if (i instanceof array_store)
+            return ((array_store)i).var;
+        if (i instanceof array_assign)
+            return (Var)((array_assign)i).var;
+        if (i instanceof binop || i instanceof assign || i instanceof movfi
+                || i instanceof intToFloat || i instanceof array_load || i instanceof select)
+            return i.def();
+        return null;
+    }
+
+    private static boolean isGlobal(Var v){
+        return v instanceof NamedVar && !v.isLocal;
+    }
+}
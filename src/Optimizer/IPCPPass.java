@@ -0,0 +1,264 @@
+package Optimizer;
+
+import IR.*;
+import RegisterAllocator.BasicBlock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.TreeMap;
+
+// Interprocedural constant propagation
+//
+// Calls name their callee by its label, so finding every call of a function is a walk over
+// the program. A param that every call passes the same constant is that constant inside the
+// function too: the param is replaced by a temporary assigned the constant at the start, SCCP
+// folds it into the body later. A recursive call passing the param on unchanged doesn't spoil
+// it, as long as the function never assigns the param.
+//
+// Calls in a loop that pass constants to a small function get a copy of it of their own,
+// with those params bound the same way and dropped from the arguments:
+//     callr t, _scale, x, 3       ->      callr t, _scale.1, x
+// Calls passing the same constants share a copy. A callee can't be bigger than CLONE_LIMIT or
+// have more than MAX_CLONES copies, all of the copies together stay within CLONE_BUDGET.
+// Recursive calls in a copy still go to the original. The '.' in the name keeps copies apart
+// from the functions of the program.
+
+public class IPCPPass extends ModulePass {
+
+    // Largest function that gets copied, in instructions
+    static final int CLONE_LIMIT = 80;
+    // Most instructions all the copies take
+    static final int CLONE_BUDGET = 200;
+    static final int MAX_CLONES = 4;
+
+    private IRModule module;
+    // The calls of every function, in the order of the program
+    private HashMap<String, ArrayList<callInstruction>> calls;
+    private IdentityHashMap<callInstruction, IRFunction> callers;
+
+    public String name(){
+        return "ipcp";
+    }
+
+    public boolean run(IRModule module){
+        this.module = module;
+        findCalls();
+
+        boolean changed = false;
+        HashMap<String, HashMap<Integer, Immediate>> bound = new HashMap<>();
+        for (IRFunction f : module.functions){
+            if (!calls.containsKey(f.name()))
+                continue;
+            HashMap<Integer, Immediate> constants = constantParams(f);
+            bound.put(f.name(), constants);
+            if (!constants.isEmpty()){
+                bind(f, (FunctionPrologue)f.label(), constants);
+                changed = true;
+            }
+        }
+        // binding rebuilt the code of the functions
+        if (changed)
+            findCalls();
+        if (specialise(bound))
+            changed = true;
+        return changed;
+    }
+
+    private void findCalls(){
+        calls = new HashMap<>();
+        callers = new IdentityHashMap<>();
+        for (IRFunction f : module.functions){
+            for (IR i : f.instructions){
+                if (!(i instanceof callInstruction))
+                    continue;
+                IRFunction callee = module.getFunction(callee(i));
+                if (callee == null || callee.isMain() || !(callee.label() instanceof FunctionPrologue))
+                    continue;
+                calls.computeIfAbsent(callee.name(), k -> new ArrayList<>()).add((callInstruction)i);
+                callers.put((callInstruction)i, f);
+            }
+        }
+    }
+
+    private static String callee(IR call){
+        return ((callInstruction)call).fun.label.name;
+    }
+
+    // The params every call gives the same constant, by position
+    private HashMap<Integer, Immediate> constantParams(IRFunction f){
+        FunctionPrologue prologue = (FunctionPrologue)f.label();
+        HashMap<Integer, Immediate> constants = new HashMap<>();
+        for (int p = 0; p < prologue.arguments.size(); p++){
+            NamedVar param = prologue.arguments.get(p);
+            Immediate value = null;
+            boolean same = true;
+            for (callInstruction call : calls.get(f.name())){
+                if (call.args.size() != prologue.arguments.size()){
+                    same = false;
+                    break;
+                }
+                Operand arg = call.args.get(p);
+                if (arg == param && callers.get(call) == f && !assigns(f, param))
+                    continue;
+                Immediate c = constant(arg, param.isInt());
+                if (c == null || (value != null && !equal(value, c))){
+                    same = false;
+                    break;
+                }
+                value = c;
+            }
+            if (same && value != null)
+                constants.put(p, value);
+        }
+        return constants;
+    }
+
+    private static boolean assigns(IRFunction f, Var v){
+        for (IR i : f.instructions){
+            if (i.def() == v)
+                return true;
+        }
+        return false;
+    }
+
+    // The value an argument gives a param of the type, when it's a constant
+    private static Immediate constant(Operand arg, boolean isInt){
+        if (isInt)
+            return (arg instanceof IntImmediate) ? (Immediate)arg : null;
+        if (arg instanceof IntImmediate)
+            return new FloatImmediate(((IntImmediate)arg).val);
+        return (arg instanceof FloatImmediate) ? (Immediate)arg : null;
+    }
+
+    private static boolean equal(Immediate a, Immediate b){
+        if (a instanceof IntImmediate)
+            return b instanceof IntImmediate && ((IntImmediate)a).val == ((IntImmediate)b).val;
+        return b instanceof FloatImmediate
+                && Float.floatToRawIntBits(((FloatImmediate)a).val) == Float.floatToRawIntBits(((FloatImmediate)b).val);
+    }
+
+    // Replaces the params in constants by temporaries starting out as the constants,
+    // the params being those of original, the function f's code was copied from
+    private static void bind(IRFunction f, FunctionPrologue original, HashMap<Integer, Immediate> constants){
+        LinearIR code = new LinearIR(f.instructions);
+        ArrayList<IR> entry = new ArrayList<>();
+        for (int p : constants.keySet()){
+            NamedVar param = original.arguments.get(p);
+            Var temp = f.newTemp(param.isInt());
+            Immediate value = constants.get(p);
+            if (param.isInt())
+                entry.add(new assign(temp, value, true));
+            else
+                entry.add(new movfi((FloatImmediate)value, temp));
+            int id = code.varId(param);
+            if (id != LinearIR.NONE)
+                code.setVar(id, temp);
+        }
+        ArrayList<IR> out = code.toIR();
+        out.addAll(1, entry);
+        f.instructions = out;
+        f.invalidate();
+    }
+
+    // Gives calls in loops passing constants copies of their callee
+    private boolean specialise(HashMap<String, HashMap<Integer, Immediate>> bound){
+        IdentityHashMap<IR, Boolean> inLoop = new IdentityHashMap<>();
+        for (IRFunction f : module.functions){
+            for (Loop loop : f.loops().innermostFirst()){
+                for (BasicBlock block : loop.blocks){
+                    for (IR i : block.instructions())
+                        inLoop.put(i, true);
+                }
+            }
+        }
+
+        int budget = CLONE_BUDGET;
+        ArrayList<IRFunction> clones = new ArrayList<>();
+        HashMap<String, IRFunction> byPattern = new HashMap<>();
+        HashMap<String, Integer> cloneCount = new HashMap<>();
+        for (IRFunction f : new ArrayList<>(module.functions)){
+            if (!calls.containsKey(f.name()) || f.size() > CLONE_LIMIT)
+                continue;
+            FunctionPrologue prologue = (FunctionPrologue)f.label();
+            for (callInstruction call : calls.get(f.name())){
+                if (!inLoop.containsKey(call) || call.args.size() != prologue.arguments.size())
+                    continue;
+                // the constants this call passes, leaving out params bound for every call already
+                TreeMap<Integer, Immediate> constants = new TreeMap<>();
+                for (int p = 0; p < call.args.size(); p++){
+                    Immediate c = constant(call.args.get(p), prologue.arguments.get(p).isInt());
+                    if (c != null && !bound.get(f.name()).containsKey(p))
+                        constants.put(p, c);
+                }
+                if (constants.isEmpty())
+                    continue;
+
+                String pattern = f.name() + constants;
+                IRFunction clone = byPattern.get(pattern);
+                if (clone == null){
+                    int count = cloneCount.getOrDefault(f.name(), 0);
+                    if (count >= MAX_CLONES || f.size() > budget)
+                        continue;
+                    clone = copy(f, f.name() + "." + (count + 1), new HashMap<>(constants));
+                    cloneCount.put(f.name(), count + 1);
+                    budget -= f.size();
+                    byPattern.put(pattern, clone);
+                    clones.add(clone);
+                }
+
+                ArrayList<Operand> args = new ArrayList<>();
+                for (int p = 0; p < call.args.size(); p++){
+                    if (!constants.containsKey(p))
+                        args.add(call.args.get(p));
+                }
+                call.fun = new LabelOp(clone.label());
+                call.args = args;
+                callers.get(call).invalidate();
+            }
+        }
+        // main stays last
+        module.functions.addAll(module.functions.size() - 1, clones);
+        return !clones.isEmpty();
+    }
+
+    // A copy of f called name, with the params in constants bound to them and gone from its arguments
+    private IRFunction copy(IRFunction f, String name, HashMap<Integer, Immediate> constants){
+        FunctionPrologue prologue = (FunctionPrologue)f.label();
+        FunctionPrologue clone = (FunctionPrologue)FunctionPrologue.generate(name);
+        for (int p = 0; p < prologue.arguments.size(); p++){
+            if (!constants.containsKey(p))
+                clone.arguments.add(prologue.arguments.get(p));
+        }
+
+        // the function's own label isn't renamed, recursive calls keep going to f
+        LinearIR code = new LinearIR(f.instructions);
+        for (int l = 0; l < code.labelCount(); l++){
+            Label label = code.label(l);
+            if (!(label instanceof SharedLabel))
+                continue;
+            SharedLabel shared = (SharedLabel)label;
+            SharedLabel renamed = SharedLabel.generate(name, baseName(shared, f.name()), shared.id);
+            code.setLabel(l, renamed);
+            if (label == prologue.epilogueLabel)
+                clone.epilogueLabel = renamed;
+        }
+        ArrayList<IR> out = code.toIR();
+        out.set(0, clone);
+
+        IRFunction copy = new IRFunction(out, module);
+        bind(copy, prologue, constants);
+        return copy;
+    }
+
+    // The name a label was made with, without the function and id around it
+    private static String baseName(SharedLabel label, String function){
+        String name = label.name;
+        String suffix = "_" + label.id;
+        if (name.startsWith(function + "_"))
+            name = name.substring(function.length() + 1);
+        if (name.endsWith(suffix))
+            name = name.substring(0, name.length() - suffix.length());
+        return name;
+    }
+}
@@ -0,0 +1,125 @@
+package Optimizer;
+
+import IR.*;
+import RegisterAllocator.FlowGraph;
+
+import java.util.ArrayList;
+
+// The IR of one function (or main) while it goes through the optimizer,
+// together with the analyses computed on it so far
+// Analyses are built on first use and kept until a pass changes the function
+
+public class IRFunction {
+
+    // Starts with the function's label, like the streams FlowGraphGen splits out
+    public ArrayList<IR> instructions;
+    // The program the function is part of
+    IRModule module;
+
+    private FlowGraph cfg = null;
+    private Liveness liveness = null;
+    private Dominators dominators = null;
+    private Loops loops = null;
+
+    private int nextLabel = -1;
+    private int nextTemp = -1;
+
+    public IRFunction(ArrayList<IR> instructions, IRModule module){
+        this.instructions = instructions;
+        this.module = module;
+    }
+
+    public Label label(){
+        return (Label)instructions.get(0);
+    }
+
+    public String name(){
+        return label().name;
+    }
+
+    public boolean isMain(){
+        return name().equals("main");
+    }
+
+    public FlowGraph cfg(){
+        if (cfg == null)
+            cfg = new FlowGraph(instructions);
+        return cfg;
+    }
+
+    public Liveness liveness(){
+        if (liveness == null)
+            liveness = new Liveness(cfg(), modRef());
+        return liveness;
+    }
+
+    public Dominators dominators(){
+        if (dominators == null)
+            dominators = new Dominators(cfg());
+        return dominators;
+    }
+
+    public Loops loops(){
+        if (loops == null)
+            loops = new Loops(dominators());
+        return loops;
+    }
+
+    // What the calls the function makes can read and write
+    public ModRef modRef(){
+        return module.modRef();
+    }
+
+    // Called whenever the instructions change
+    public void invalidate(){
+        cfg = null;
+        liveness = null;
+        dominators = null;
+        loops = null;
+    }
+
+    // A new label, numbered after every label the function has
+    public SharedLabel newLabel(String name){
+        if (nextLabel < 0){
+            nextLabel = 0;
+            for (IR i : instructions){
+                if (i instanceof SharedLabel)
+                    nextLabel = Math.max(nextLabel, ((SharedLabel)i).id + 1);
+            }
+        }
+        return SharedLabel.generate(name(), name, nextLabel++);
+    }
+
+    // A new temporary, numbered after every temporary the function uses
+    public TempVar newTemp(boolean isInteger){
+        if (nextTemp < 0){
+            nextTemp = 0;
+            for (IR i : instructions){
+                if (i.def() != null)
+                    nextTemp = Math.max(nextTemp, tempId(i.def()) + 1);
+                for (int u = 0; u < i.useCount(); u++){
+                    nextTemp = Math.max(nextTemp, tempId(i.useAt(u)) + 1);
+                }
+            }
+        }
+        return TempVar.generate(isInteger, nextTemp++, !isMain());
+    }
+
+    private static int tempId(Var v){
+        if (v instanceof TempIntVar)
+            return ((TempIntVar)v).id;
+        if (v instanceof TempFloatVar)
+            return ((TempFloatVar)v).id;
+        return -1;
+    }
+
+    // Number of real instructions, labels don't count
+    public int size(){
+        int size = 0;
+        for (IR i : instructions){
+            if (i instanceof instruction)
+                size++;
+        }
+        return size;
+    }
+}
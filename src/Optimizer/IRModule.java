@@ -0,0 +1,65 @@
+package Optimizer;
+
+import IR.*;
+
+import java.util.ArrayList;
+
+// The whole program as a list of functions, main last
+
+public class IRModule {
+
+    public ArrayList<IRFunction> functions = new ArrayList<>();
+
+    private ModRef modRef = null;
+
+    // Splits an instruction stream at every function label, the same way FlowGraphGen does
+    public IRModule(ArrayList<IR> instructions){
+        ArrayList<IR> current = null;
+        for (IR instruction : instructions){
+            if (instruction instanceof FunctionLabel || current == null){
+                current = new ArrayList<>();
+                functions.add(new IRFunction(current, this));
+            }
+            current.add(instruction);
+        }
+    }
+
+    public IRFunction getFunction(String name){
+        for (IRFunction f : functions){
+            if (f.name().equals(name))
+                return f;
+        }
+        return null;
+    }
+
+    // Built on first use and kept until a module pass changes the program, function passes
+    // only ever take reads and writes of globals away, which leaves the summaries safe to use
+    public ModRef modRef(){
+        if (modRef == null)
+            modRef = new ModRef(this);
+        return modRef;
+    }
+
+    public ArrayList<IR> toStream(){
+        ArrayList<IR> out = new ArrayList<>();
+        for (IRFunction f : functions){
+            out.addAll(f.instructions);
+        }
+        return out;
+    }
+
+    public int size(){
+        int size = 0;
+        for (IRFunction f : functions){
+            size += f.size();
+        }
+        return size;
+    }
+
+    public void invalidate(){
+        modRef = null;
+        for (IRFunction f : functions){
+            f.invalidate();
+        }
+    }
+}
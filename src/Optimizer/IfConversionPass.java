@@ -0,0 +1,205 @@
+package Optimizer;
+
+import Config.Config;
+import IR.*;
+import RegisterAllocator.BasicBlock;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+// If-conversion
+//
+// An if that does nothing but give one int var x a value, on one side or both
+//     brgeq a, b, L              brgeq a, b, L
+//     x := v                     x := v
+//   L:                           goto M
+//                              L:
+//                                x := w
+//                              M:
+// becomes a select and no branch at all:
+//     x := (a >= b) ? x : v      x := (a >= b) ? w : v
+// The code computing v and w runs every time now, so it has to be free of side effects
+// (binops other than div, assigns, selects), the temporaries it assigns can't be live after
+// the if or read by the other side or the compare, and there can't be much of it:
+// MAX_SPECULATED instructions over both sides, a plain x := v costs nothing as it becomes the
+// select's move. Past that the extra work costs more than the branch does. The select reads at
+// most three vars, the intra-block allocator has no register to load a fourth spilled one into.
+//
+// Ifs found on the flow graph, innermost first, the select of a converted if can go into
+// the side of one around it. Not done under the global allocator.
+
+public class IfConversionPass extends FunctionPass {
+
+    // Most instructions that run on both sides now, selects count for 3
+    static final int MAX_SPECULATED = 2;
+
+    public String name(){
+        return "if-convert";
+    }
+
+    public boolean run(IRFunction function){
+        if (Config.REG_ALLOCATOR == Config.RegAllocator.GLOBAL)
+            return false;
+        boolean changed = false;
+        while (convert(function)){
+            function.invalidate();
+            changed = true;
+        }
+        return changed;
+    }
+
+    // Converts the first if that qualifies
+    private boolean convert(IRFunction function){
+        // blocks are in the order of the code, after the entry and exit blocks
+        ArrayList<BasicBlock> blocks = function.cfg().getNodes();
+        for (int k = 2; k + 2 < blocks.size(); k++){
+            BasicBlock block = blocks.get(k);
+            if (!(block.lastInstruction() instanceof branch) || !((branch)block.lastInstruction()).isInt())
+                continue;
+            branch test = (branch)block.lastInstruction();
+            BasicBlock then = blocks.get(k + 1);
+            if (then.size() == 0 || then.getPred().size() != 1)
+                continue;
+
+            ArrayList<IR> thenSide = new ArrayList<>(then.instructions());
+            ArrayList<IR> elseSide = new ArrayList<>();
+            ArrayList<IR> skipped = new ArrayList<>(thenSide);
+            BasicBlock join = blocks.get(k + 2);
+            IR last = then.lastInstruction();
+            if (last instanceof goTo){
+                BasicBlock otherwise = blocks.get(k + 2);
+                if (k + 3 >= blocks.size() || otherwise.startLabel != test.labelOp.label
+                        || otherwise.getPred().size() != 1 || otherwise.size() == 0
+                        || blocks.get(k + 3).startLabel != ((goTo)last).labelOp.label)
+                    continue;
+                thenSide.remove(thenSide.size() - 1);
+                elseSide.addAll(otherwise.instructions());
+                skipped.addAll(elseSide);
+                join = blocks.get(k + 3);
+            }
+            else if (join.startLabel != test.labelOp.label){
+                continue;
+            }
+
+            BitSet live = function.liveness().liveIn(join);
+            Var x = assigned(thenSide, elseSide, test, live, function.liveness());
+            if (x == null || !x.isInt())
+                continue;
+            if (!elseSide.isEmpty() && assigned(elseSide, thenSide, test, live, function.liveness()) != x)
+                continue;
+            if (cost(thenSide) + cost(elseSide) > MAX_SPECULATED)
+                continue;
+            // a spilled var is loaded into one of three reserved registers, a fourth has none
+            if (distinctVars(test.left, test.right, elseSide.isEmpty() ? x : value(elseSide), value(thenSide)) > 3)
+                continue;
+
+            ArrayList<IR> code = new ArrayList<>();
+            Operand otherValue = sideValue(function, thenSide, code);
+            Operand value = elseSide.isEmpty() ? x : sideValue(function, elseSide, code);
+            code.add(new select(select.of(test), test.left, test.right, value, otherValue, x));
+
+            IdentityHashMap<IR, Boolean> removed = new IdentityHashMap<>();
+            for (IR i : skipped){
+                removed.put(i, true);
+            }
+            ArrayList<IR> out = new ArrayList<>(function.instructions.size());
+            for (IR i : function.instructions){
+                if (i == test)
+                    out.addAll(code);
+                else if (!removed.containsKey(i))
+                    out.add(i);
+            }
+            function.instructions = out;
+            return true;
+        }
+        return false;
+    }
+
+    // The var a side of the if gives a value, when that's all it does, or null
+    private static Var assigned(ArrayList<IR> side, ArrayList<IR> otherSide, branch test, BitSet live, Liveness liveness){
+        if (side.isEmpty())
+            return null;
+        Var x = side.get(side.size() - 1).def();
+        if (x == null)
+            return null;
+        for (int n = 0; n < side.size(); n++){
+            IR i = side.get(n);
+            if (!isSafe(i))
+                return null;
+            if (n == side.size() - 1)
+                break;
+            // everything before computes temporaries nothing else sees
+            Var t = i.def();
+            if (!(t instanceof TempVar) || t == x || t == test.left || t == test.right
+                    || live.get(liveness.index(t)) || usesIn(otherSide, t) > 0)
+                return null;
+        }
+        return x;
+    }
+
+    // Can run whichever way the if goes
+    private static boolean isSafe(IR i){
+        if (!(i instanceof instruction) || !((instruction)i).isInt() || i.def() == null)
+            return false;
+        return i instanceof select || i instanceof assign || (i instanceof binop && !(i instanceof div));
+    }
+
+    private static int usesIn(ArrayList<IR> side, Var v){
+        int count = 0;
+        for (IR i : side){
+            for (int u = 0; u < i.useCount(); u++){
+                if (i.useAt(u) == v)
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    private static int cost(ArrayList<IR> side){
+        int cost = 0;
+        for (int n = 0; n < side.size(); n++){
+            IR i = side.get(n);
+            if (i instanceof select)
+                cost += 3;
+            else if (!(n == side.size() - 1 && i instanceof assign))
+                cost++;
+        }
+        return cost;
+    }
+
+    // What a side gives x when it ends in x := v, null for the new temporary sideValue() makes
+    private static Operand value(ArrayList<IR> side){
+        IR last = side.get(side.size() - 1);
+        return last instanceof assign ? ((assign)last).right : null;
+    }
+
+    // Each null is a var of its own
+    private static int distinctVars(Operand... operands){
+        IdentityHashMap<Operand, Boolean> vars = new IdentityHashMap<>();
+        int temps = 0;
+        for (Operand o : operands){
+            if (o == null)
+                temps++;
+            else if (o instanceof Var)
+                vars.put(o, true);
+        }
+        return vars.size() + temps;
+    }
+
+    // Moves a side's code into code, the last instruction computing into a new temporary
+    // instead of x, and returns what x would have been given
+    private static Operand sideValue(IRFunction function, ArrayList<IR> side, ArrayList<IR> code){
+        IR last = side.get(side.size() - 1);
+        code.addAll(side.subList(0, side.size() - 1));
+        if (last instanceof assign)
+            return ((assign)last).right;
+        Var t = function.newTemp(true);
+        if (last instanceof binop)
+            ((binop)last).result = t;
+        else
+            ((select)last).result = t;
+        code.add(last);
+        return t;
+    }
+}
@@ -0,0 +1,194 @@
+package Optimizer;
+
+import IR.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+// Inlines calls to small functions that aren't recursive
+//
+// A call site is replaced by a copy of the callee's body:
+//     every local of the callee (params, temporaries) becomes a new temporary of the caller,
+//     assigned the argument first in the case of params
+//     every label becomes a new label of the caller
+//     a return assigns the value to the callr's target and jumps to a label after the copy
+// Globals and arrays are shared with the callee and stay as they are.
+//
+// Callees are done before their callers (a postorder of the call graph), so calls inlined into
+// a callee come along with it. A function is recursive when it can reach itself in the call graph,
+// those are never inlined. A callee has to fit the size budget, and a caller stops taking in
+// code once it has grown past its own limit.
+
+public class InlinePass extends ModulePass {
+
+    // Largest callee that gets inlined, in instructions
+    static final int CALLEE_BUDGET = 30;
+    // A caller doesn't grow past this many instructions by inlining
+    static final int CALLER_LIMIT = 2000;
+
+    private IRModule module;
+    private HashMap<String, ArrayList<String>> callees;
+
+    public String name(){
+        return "inline";
+    }
+
+    public boolean run(IRModule module){
+        this.module = module;
+        callees = new HashMap<>();
+        for (IRFunction f : module.functions){
+            ArrayList<String> called = new ArrayList<>();
+            for (IR i : f.instructions){
+                if (i instanceof callInstruction && !called.contains(callee(i)))
+                    called.add(callee(i));
+            }
+            callees.put(f.name(), called);
+        }
+
+        boolean changed = false;
+        for (IRFunction f : postorder()){
+            if (inlineCalls(f)){
+                f.invalidate();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static String callee(IR call){
+        return ((callInstruction)call).fun.label.name;
+    }
+
+    // Functions after everything they call, recursion aside
+    private ArrayList<IRFunction> postorder(){
+        ArrayList<IRFunction> order = new ArrayList<>();
+        HashMap<String, Boolean> seen = new HashMap<>();
+        for (IRFunction f : module.functions){
+            visit(f.name(), seen, order);
+        }
+        return order;
+    }
+
+    private void visit(String name, HashMap<String, Boolean> seen, ArrayList<IRFunction> order){
+        IRFunction f = module.getFunction(name);
+        if (f == null || seen.containsKey(name))
+            return;
+        seen.put(name, true);
+        for (String callee : callees.get(name)){
+            visit(callee, seen, order);
+        }
+        order.add(f);
+    }
+
+    private boolean isRecursive(String name){
+        HashMap<String, Boolean> seen = new HashMap<>();
+        ArrayList<String> stack = new ArrayList<>(callees.get(name));
+        while (!stack.isEmpty()){
+            String f = stack.remove(stack.size() - 1);
+            if (f.equals(name))
+                return true;
+            if (seen.containsKey(f) || !callees.containsKey(f))
+                continue;
+            seen.put(f, true);
+            stack.addAll(callees.get(f));
+        }
+        return false;
+    }
+
+    private boolean canInline(IRFunction callee){
+        if (callee == null || callee.isMain() || callee.size() > CALLEE_BUDGET || isRecursive(callee.name()))
+            return false;
+        // arrays are passed by reference, a copy of one in a temporary wouldn't do
+        for (IR i : callee.instructions){
+            Var array = null;
+            if (i instanceof array_load)
+                array = (Var)((array_load)i).var;
+            else if (i instanceof array_store)
+                array = ((array_store)i).var;
+            else if (i instanceof array_assign)
+                array = (Var)((array_assign)i).var;
+            if (array != null && array.isLocal)
+                return false;
+        }
+        return true;
+    }
+
+    private boolean inlineCalls(IRFunction caller){
+        boolean changed = false;
+        ArrayList<IR> out = new ArrayList<>(caller.instructions.size());
+        int size = caller.size();
+        for (IR i : caller.instructions){
+            IRFunction callee = (i instanceof callInstruction) ? module.getFunction(callee(i)) : null;
+            if (callee == null || callee == caller || !canInline(callee) || size + callee.size() > CALLER_LIMIT){
+                out.add(i);
+                continue;
+            }
+            ArrayList<IR> body = copy(callee, caller, (callInstruction)i);
+            size += callee.size();
+            out.addAll(body);
+            changed = true;
+        }
+        caller.instructions = out;
+        return changed;
+    }
+
+    // The callee's body for one call site, with its own vars and labels
+    private ArrayList<IR> copy(IRFunction callee, IRFunction caller, callInstruction call){
+        FunctionPrologue prologue = (FunctionPrologue)callee.label();
+        LinearIR code = new LinearIR(callee.instructions);
+        SharedLabel after = caller.newLabel("after" + callee.name());
+
+        ArrayList<IR> out = new ArrayList<>();
+        IdentityHashMap<Var, Var> renamed = new IdentityHashMap<>();
+        for (int v = 0; v < code.varCount(); v++){
+            Var var = code.var(v);
+            if (var.isLocal){
+                Var local = caller.newTemp(var.isInt());
+                renamed.put(var, local);
+                code.setVar(v, local);
+            }
+        }
+        for (int l = 0; l < code.labelCount(); l++){
+            Label label = code.label(l);
+            if (label == prologue.epilogueLabel)
+                code.setLabel(l, after);
+            else if (label instanceof SharedLabel)
+                code.setLabel(l, caller.newLabel("inline" + callee.name()));
+        }
+
+        // params take the arguments
+        for (int a = 0; a < prologue.arguments.size() && a < call.args.size(); a++){
+            Var param = renamed.get(prologue.arguments.get(a));
+            if (param == null)
+                continue;
+            out.add(bind(param, call.args.get(a)));
+        }
+
+        for (int n = 0; n < code.size(); n++){
+            IR i = code.get(n);
+            // the epilogue label is after now, it goes at the very end
+            if (i == prologue || i == after || i instanceof FunctionEpilogue)
+                continue;
+            if (i instanceof ret){
+                Operand value = ((ret)i).retVal;
+                if (call instanceof callr && value != null)
+                    out.add(bind((Var)((callr)call).retVal, value));
+                out.add(new goTo(new LabelOp(after)));
+                continue;
+            }
+            out.add(i);
+        }
+        out.add(after);
+        return out;
+    }
+
+    // var := value, converting an int to a float where the types differ
+    private static IR bind(Var var, Operand value){
+        if (!var.isInt() && value.isInt())
+            return new intToFloat(value, var);
+        if (value instanceof FloatImmediate && var instanceof TempVar)
+            return new movfi((FloatImmediate)value, var);
+        return new assign(var, value, var.isInt());
+    }
+}
@@ -0,0 +1,212 @@
+package Optimizer;
+
+import IR.*;
+import RegisterAllocator.BasicBlock;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+// Loop invariant code motion
+//
+// Moves computations whose operands don't change inside a loop into a preheader,
+// a new block in front of the loop header that every entry into the loop goes through.
+// An instruction x := op(a, b) in a loop is moved when
+//     op has no side effects (binops, intToFloat, movfi, assign, array_load, or a callr of a
+//       pure function that always returns, see ModRef)
+//     a and b aren't assigned in the loop, or only by instructions being moved as well
+//     it's the only assignment to x in the loop, and x isn't live going into the header
+//       (so every use of x in the loop sees this assignment)
+//     it runs on every way out of the loop, or x is dead after the loop
+// Calls in the loop can change the globals and arrays their callees write (see ModRef),
+// array_store and array_assign their array, so globals and array_loads that could see those
+// changes stay where they are. The same goes for a pure callr reading them.
+//
+// Inner loops go first, what's moved out of them can then move further out.
+
+public class LICMPass extends FunctionPass {
+
+    // What a loop assigns
+    private IdentityHashMap<Var, Integer> defs;
+    private IdentityHashMap<Var, Boolean> stored;
+    private ModRef.Summary called;
+    private ModRef modRef;
+
+    public String name(){
+        return "licm";
+    }
+
+    public boolean run(IRFunction function){
+        boolean changed = false;
+        boolean moved = true;
+        while (moved){
+            moved = false;
+            for (Loop loop : function.loops().innermostFirst()){
+                if (hoist(function, loop)){
+                    function.invalidate();
+                    moved = changed = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean hoist(IRFunction function, Loop loop){
+        if (!(loop.header.startLabel instanceof SharedLabel))
+            return false;
+
+        defs = new IdentityHashMap<>();
+        stored = new IdentityHashMap<>();
+        called = new ModRef.Summary();
+        modRef = function.modRef();
+        for (BasicBlock block : loop.blocks){
+            for (IR i : block.instructions()){
+                if (i.def() != null)
+                    defs.merge(i.def(), 1, Integer::sum);
+                if (i instanceof callInstruction)
+                    called.add(modRef.of((callInstruction)i));
+                else if (i instanceof array_store)
+                    stored.put(((array_store)i).var, true);
+                else if (i instanceof array_assign)
+                    stored.put(((array_assign)i).var, true);
+            }
+        }
+
+        Liveness liveness = function.liveness();
+        Dominators dom = function.dominators();
+        ArrayList<BasicBlock> exiting = loop.exiting();
+        BitSet liveAfter = new BitSet();
+        for (BasicBlock exit : loop.exits()){
+            liveAfter.or(liveness.liveIn(exit));
+        }
+
+        // dominator order, so whatever an instruction depends on is marked before it
+        ArrayList<IR> invariant = new ArrayList<>();
+        IdentityHashMap<IR, Boolean> moving = new IdentityHashMap<>();
+        IdentityHashMap<Var, Boolean> invariantDefs = new IdentityHashMap<>();
+        boolean found = true;
+        while (found){
+            found = false;
+            for (BasicBlock block : dom.reversePostorder()){
+                if (!loop.contains(block))
+                    continue;
+                for (IR i : block.instructions()){
+                    if (moving.containsKey(i) || !isInvariant(i, invariantDefs))
+                        continue;
+
+                    Var def = i.def();
+                    int d = liveness.index(def);
+                    if (liveness.liveIn(loop.header).get(d))
+                        continue;
+                    boolean alwaysRuns = true;
+                    for (BasicBlock e : exiting){
+                        alwaysRuns &= dom.dominates(block, e);
+                    }
+                    if (!alwaysRuns && liveAfter.get(d))
+                        continue;
+
+                    invariant.add(i);
+                    moving.put(i, true);
+                    invariantDefs.put(def, true);
+                    found = true;
+                }
+            }
+        }
+        if (invariant.isEmpty())
+            return false;
+
+        insertPreheader(function, loop, invariant, moving);
+        return true;
+    }
+
+    // Puts code in a new block in front of the loop header that every entry into the loop goes through,
+    // the instructions in skip are dropped from where they were
+    // Needs the function's flow graph to still match its instructions.
+    static void insertPreheader(IRFunction function, Loop loop, ArrayList<IR> code, IdentityHashMap<IR, Boolean> skip){
+        IdentityHashMap<IR, BasicBlock> blockOf = new IdentityHashMap<>();
+        for (BasicBlock block : function.cfg().getNodes()){
+            for (IR i : block.instructions()){
+                blockOf.put(i, block);
+            }
+        }
+
+        // jumps into the loop from outside now go to the preheader, the back edges stay
+        Label header = loop.header.startLabel;
+        SharedLabel preheader = function.newLabel("preheader");
+        for (IR i : function.instructions){
+            BasicBlock block = blockOf.get(i);
+            if (block != null && loop.contains(block))
+                continue;
+            if (i instanceof branch && ((branch)i).labelOp.label == header)
+                ((branch)i).labelOp = new LabelOp(preheader);
+            else if (i instanceof goTo && ((goTo)i).labelOp.label == header)
+                ((goTo)i).labelOp = new LabelOp(preheader);
+        }
+
+        ArrayList<IR> out = new ArrayList<>(function.instructions.size() + code.size() + 2);
+        IR previous = null;
+        for (IR i : function.instructions){
+            if (skip.containsKey(i))
+                continue;
+            if (i == header){
+                // a loop block right above the header falls into it, that edge has to skip the preheader
+                BasicBlock above = blockOf.get(previous);
+                if (above != null && loop.contains(above) && !endsBlock(previous, function))
+                    out.add(new goTo(new LabelOp(header)));
+                out.add(preheader);
+                out.addAll(code);
+            }
+            out.add(i);
+            previous = i;
+        }
+        function.instructions = out;
+    }
+
+    private static boolean endsBlock(IR i, IRFunction function){
+        return i instanceof goTo || (i instanceof ret && !function.isMain());
+    }
+
+    private boolean isInvariant(IR i, IdentityHashMap<Var, Boolean> invariantDefs){
+        if (!(i instanceof binop || i instanceof intToFloat || i instanceof movfi
+                || i instanceof assign || i instanceof array_load || i instanceof callr))
+            return false;
+        if (i instanceof callr && !isInvariantCall((callr)i))
+            return false;
+
+        Var def = i.def();
+        if (def == null || defs.get(def) != 1 || (isGlobal(def) && called.mods(def)))
+            return false;
+        if (i instanceof array_load && (called.modsArray((Var)((array_load)i).var) || stored.containsKey(((array_load)i).var)))
+            return false;
+
+        for (int u = 0; u < i.useCount(); u++){
+            Var v = i.useAt(u);
+            if (invariantDefs.containsKey(v))
+                continue;
+            if (defs.containsKey(v) || (isGlobal(v) && called.mods(v)))
+                return false;
+        }
+        return true;
+    }
+
+    // A pure function's result only changes with its arguments and what it reads
+    private boolean isInvariantCall(callr call){
+        ModRef.Summary callee = modRef.of(call);
+        if (call.tail || !callee.isPure() || !callee.alwaysReturns() || called.changes(callee))
+            return false;
+        for (Var v : defs.keySet()){
+            if (isGlobal(v) && callee.refs(v))
+                return false;
+        }
+        for (Var array : stored.keySet()){
+            if (callee.refsArray(array))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isGlobal(Var v){
+        return v instanceof NamedVar && !v.isLocal;
+    }
+}
@@ -0,0 +1,152 @@
+package Optimizer;
+
+import IR.*;
+import RegisterAllocator.BasicBlock;
+import RegisterAllocator.FlowGraph;
+import Util.DiNode;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+// Live variables of every block of a function's flow graph, for use by optimization passes
+// (the allocators keep their own per block liveness)
+//
+// Vars are numbered densely per function and sets are BitSets over those numbers.
+// Global vars live in memory that other functions can read, so they are treated as
+// used by the calls that may read them (every call without a ModRef) and live when a function
+// returns (except from main, the program ends there).
+// Arrays are always in memory and are not tracked.
+
+public class Liveness {
+
+    private FlowGraph cfg;
+    private ArrayList<Var> vars = new ArrayList<>();
+    private IdentityHashMap<Var, Integer> index = new IdentityHashMap<>();
+    private BitSet globals = new BitSet();
+    private ModRef modRef;
+
+    private HashMap<BasicBlock, BitSet> liveIn = new HashMap<>();
+    private HashMap<BasicBlock, BitSet> liveOut = new HashMap<>();
+
+    public Liveness(FlowGraph cfg, ModRef modRef){
+        this.cfg = cfg;
+        this.modRef = modRef;
+
+        for (BasicBlock block : cfg.getNodes()){
+            for (IR i : block.instructions()){
+                if (i.def() != null)
+                    add(i.def());
+                for (int u = 0; u < i.useCount(); u++){
+                    add(i.useAt(u));
+                }
+            }
+        }
+
+        // upward exposed uses and definitions of every block
+        HashMap<BasicBlock, BitSet> gen = new HashMap<>();
+        HashMap<BasicBlock, BitSet> kill = new HashMap<>();
+        for (BasicBlock block : cfg.getNodes()){
+            BitSet live = new BitSet();
+            BitSet defs = new BitSet();
+            for (int i = block.size() - 1; i >= 0; i--){
+                IR instruction = block.getInstruction(i);
+                transfer(instruction, live);
+                if (instruction.def() != null)
+                    defs.set(index(instruction.def()));
+            }
+            gen.put(block, live);
+            kill.put(block, defs);
+            liveIn.put(block, new BitSet());
+            liveOut.put(block, new BitSet());
+        }
+        if (!isMain())
+            liveIn.get(cfg.exitBlock).or(globals);
+
+        // iterate to a fixed point, going backwards through the blocks converges quicker
+        boolean changed = true;
+        while (changed){
+            changed = false;
+            ArrayList<BasicBlock> blocks = cfg.getNodes();
+            for (int b = blocks.size() - 1; b >= 0; b--){
+                BasicBlock block = blocks.get(b);
+                if (block == cfg.exitBlock)
+                    continue;
+                BitSet out = liveOut.get(block);
+                for (DiNode succ : block.getSucc()){
+                    out.or(liveIn.get((BasicBlock)succ));
+                }
+                BitSet in = (BitSet)out.clone();
+                in.andNot(kill.get(block));
+                in.or(gen.get(block));
+                if (!in.equals(liveIn.get(block))){
+                    liveIn.put(block, in);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private boolean isMain(){
+        return cfg.instructions.get(0) instanceof Label && ((Label)cfg.instructions.get(0)).name.equals("main");
+    }
+
+    private void add(Var v){
+        if (!index.containsKey(v)){
+            index.put(v, vars.size());
+            if (v instanceof NamedVar && !v.isLocal)
+                globals.set(vars.size());
+            vars.add(v);
+        }
+    }
+
+    // Updates the set of vars live after instruction to the set live before it
+    public void transfer(IR instruction, BitSet live){
+        Var def = instruction.def();
+        if (def != null)
+            live.clear(index(def));
+        for (int u = 0; u < instruction.useCount(); u++){
+            live.set(index(instruction.useAt(u)));
+        }
+        if (instruction instanceof callInstruction){
+            ModRef.Summary called = (modRef == null) ? null : modRef.of((callInstruction)instruction);
+            for (int g = globals.nextSetBit(0); g >= 0; g = globals.nextSetBit(g + 1)){
+                if (called == null || called.refs(vars.get(g)))
+                    live.set(g);
+            }
+        }
+    }
+
+    public BitSet liveIn(BasicBlock block){
+        return liveIn.get(block);
+    }
+
+    public BitSet liveOut(BasicBlock block){
+        return liveOut.get(block);
+    }
+
+    public boolean isLiveOut(BasicBlock block, Var v){
+        Integer i = index.get(v);
+        return i != null && liveOut.get(block).get(i);
+    }
+
+    // Number of a var in this function's sets, or -1 if the function never mentions it
+    public int index(Var v){
+        Integer i = index.get(v);
+        return i == null ? -1 : i;
+    }
+
+    public Var var(int i){
+        return vars.get(i);
+    }
+
+    public int size(){
+        return vars.size();
+    }
+
+    public boolean isGlobal(Var v){
+        Integer i = index.get(v);
+        return i != null && globals.get(i);
+    }
+}
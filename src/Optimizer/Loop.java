@@ -0,0 +1,76 @@
+package Optimizer;
+
+import RegisterAllocator.BasicBlock;
+import Util.DiNode;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+// A natural loop: a header and every block that can get back to it without leaving the loop
+// All the back edges to the same header make up one loop
+
+public class Loop {
+
+    public BasicBlock header;
+    public ArrayList<BasicBlock> latches = new ArrayList<>();   // sources of the back edges
+    public ArrayList<BasicBlock> blocks = new ArrayList<>();    // header first
+
+    // The innermost loop around this one, null for outermost loops
+    public Loop parent = null;
+
+    private IdentityHashMap<BasicBlock, Boolean> members = new IdentityHashMap<>();
+
+    public Loop(BasicBlock header){
+        this.header = header;
+        add(header);
+    }
+
+    void add(BasicBlock block){
+        if (!members.containsKey(block)){
+            members.put(block, true);
+            blocks.add(block);
+        }
+    }
+
+    public boolean contains(BasicBlock block){
+        return members.containsKey(block);
+    }
+
+    public boolean contains(Loop other){
+        return contains(other.header);
+    }
+
+    public int depth(){
+        int depth = 1;
+        for (Loop l = parent; l != null; l = l.parent){
+            depth++;
+        }
+        return depth;
+    }
+
+    // Blocks in the loop with an edge out of it
+    public ArrayList<BasicBlock> exiting(){
+        ArrayList<BasicBlock> exiting = new ArrayList<>();
+        for (BasicBlock b : blocks){
+            for (DiNode s : b.getSucc()){
+                if (!contains((BasicBlock)s)){
+                    exiting.add(b);
+                    break;
+                }
+            }
+        }
+        return exiting;
+    }
+
+    // Blocks outside the loop that an edge out of it goes to
+    public ArrayList<BasicBlock> exits(){
+        ArrayList<BasicBlock> exits = new ArrayList<>();
+        for (BasicBlock b : blocks){
+            for (DiNode s : b.getSucc()){
+                if (!contains((BasicBlock)s) && !exits.contains(s))
+                    exits.add((BasicBlock)s);
+            }
+        }
+        return exits;
+    }
+}
@@ -0,0 +1,80 @@
+package Optimizer;
+
+import RegisterAllocator.BasicBlock;
+import Util.DiNode;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+// The natural loops of a function's flow graph
+// An edge n -> h is a back edge when h dominates n, the loop of h is h plus
+// everything that reaches n without going through h.
+
+public class Loops {
+
+    private ArrayList<Loop> loops = new ArrayList<>();
+    private IdentityHashMap<BasicBlock, Loop> byHeader = new IdentityHashMap<>();
+
+    public Loops(Dominators dom){
+        for (BasicBlock n : dom.reversePostorder()){
+            for (DiNode s : n.getSucc()){
+                BasicBlock h = (BasicBlock)s;
+                if (!dom.dominates(h, n))
+                    continue;
+
+                Loop loop = byHeader.get(h);
+                if (loop == null){
+                    loop = new Loop(h);
+                    byHeader.put(h, loop);
+                    loops.add(loop);
+                }
+                loop.latches.add(n);
+
+                ArrayList<BasicBlock> stack = new ArrayList<>();
+                stack.add(n);
+                while (!stack.isEmpty()){
+                    BasicBlock b = stack.remove(stack.size() - 1);
+                    if (loop.contains(b) || !dom.isReachable(b))
+                        continue;
+                    loop.add(b);
+                    for (DiNode p : b.getPred()){
+                        stack.add((BasicBlock)p);
+                    }
+                }
+            }
+        }
+
+        // a loop inside another has fewer blocks, so the first bigger loop around it is its parent
+        loops.sort((a, b) -> a.blocks.size() - b.blocks.size());
+        for (int i = 0; i < loops.size(); i++){
+            for (int j = i + 1; j < loops.size(); j++){
+                if (loops.get(j).contains(loops.get(i)) && loops.get(j) != loops.get(i)){
+                    loops.get(i).parent = loops.get(j);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Inner loops come before the loops around them
+    public ArrayList<Loop> innermostFirst(){
+        return loops;
+    }
+
+    public Loop loopOf(BasicBlock header){
+        return byHeader.get(header);
+    }
+
+    // The innermost loop block is in, or null
+    public Loop innermost(BasicBlock block){
+        for (Loop l : loops){
+            if (l.contains(block))
+                return l;
+        }
+        return null;
+    }
+
+    public boolean isEmpty(){
+        return loops.isEmpty();
+    }
+}
@@ -0,0 +1,204 @@
+package Optimizer;
+
+import IR.*;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+// Which globals the functions of a program may read (ref) and write (mod), counting
+// everything done by the functions they call
+//
+// Each function's own reads and writes of global vars and arrays are collected, then every
+// function takes in the summaries of its callees until nothing changes (recursion makes
+// cycles in the call graph). Arrays are passed by reference, so a function reading or writing
+// an array param could be reading or writing any array.
+// The library routines touch no globals but do output. A call to anything else that isn't in
+// the module (FunctionCache compiles one function at a time) is taken to read and write every global.
+//
+// A function is pure when it writes no globals or arrays and does no output, its calls with the
+// same arguments give the same result as long as nothing it reads changes in between. It always
+// returns when it has no loops and calls only functions that always return (so not itself),
+// such a call can run where it wouldn't have without changing what the program does.
+
+public class ModRef {
+
+    // The globals a call may read and write
+    public static class Summary {
+        private IdentityHashMap<Var, Boolean> mod = new IdentityHashMap<>();
+        private IdentityHashMap<Var, Boolean> ref = new IdentityHashMap<>();
+        // through array params
+        private boolean modArrays = false;
+        private boolean refArrays = false;
+        // writes to any array at all, for arrays that are params of the caller
+        private boolean modAnyArray = false;
+        private boolean everything = false;
+        private boolean output = false;
+        private boolean returns = false;
+
+        public boolean mods(Var v){
+            return everything || mod.containsKey(v);
+        }
+
+        public boolean refs(Var v){
+            return everything || ref.containsKey(v);
+        }
+
+        public boolean modsArray(Var array){
+            if (array.isLocal)
+                return everything || modAnyArray;
+            return everything || modArrays || mod.containsKey(array);
+        }
+
+        public boolean refsArray(Var array){
+            return everything || refArrays || array.isLocal || ref.containsKey(array);
+        }
+
+        public boolean isPure(){
+            return !everything && !output && !modArrays && !modAnyArray && mod.isEmpty();
+        }
+
+        // Whether the function always returns, given that it's pure
+        public boolean alwaysReturns(){
+            return returns;
+        }
+
+        // Whether what this writes could change what reader reads
+        public boolean changes(Summary reader){
+            if (everything)
+                return true;
+            if (modAnyArray && (reader.everything || reader.refArrays || !reader.ref.isEmpty()))
+                return true;
+            for (Var v : mod.keySet()){
+                if (reader.refs(v))
+                    return true;
+            }
+            return false;
+        }
+
+        // Takes in what other does, returns whether that added anything
+        public boolean add(Summary other){
+            boolean changed = false;
+            for (Var v : other.mod.keySet()){
+                changed |= mod.put(v, true) == null;
+            }
+            for (Var v : other.ref.keySet()){
+                changed |= ref.put(v, true) == null;
+            }
+            if (other.modArrays && !modArrays || other.refArrays && !refArrays
+                    || other.modAnyArray && !modAnyArray || other.everything && !everything
+                    || other.output && !output)
+                changed = true;
+            modArrays |= other.modArrays;
+            refArrays |= other.refArrays;
+            modAnyArray |= other.modAnyArray;
+            everything |= other.everything;
+            output |= other.output;
+            return changed;
+        }
+    }
+
+    static final String[] LIBRARY = { "_printi", "_printf" };
+
+    private static final Summary OUTPUT = new Summary();
+    private static final Summary EVERYTHING = new Summary();
+    static {
+        OUTPUT.output = true;
+        OUTPUT.returns = true;
+        EVERYTHING.everything = true;
+    }
+
+    private HashMap<String, Summary> summaries = new HashMap<>();
+
+    public ModRef(IRModule module){
+        for (IRFunction f : module.functions){
+            summaries.put(f.name(), local(f));
+        }
+        boolean changed = true;
+        while (changed){
+            changed = false;
+            for (IRFunction f : module.functions){
+                Summary s = summaries.get(f.name());
+                for (IR i : f.instructions){
+                    if (i instanceof callInstruction)
+                        changed |= s.add(of((callInstruction)i));
+                }
+            }
+        }
+
+        // starting from none, so recursion never gets in
+        changed = true;
+        while (changed){
+            changed = false;
+            for (IRFunction f : module.functions){
+                Summary s = summaries.get(f.name());
+                if (s.returns || !s.isPure() || !f.loops().isEmpty())
+                    continue;
+                boolean returns = true;
+                for (IR i : f.instructions){
+                    if (i instanceof callInstruction && !of((callInstruction)i).returns)
+                        returns = false;
+                }
+                if (returns){
+                    s.returns = true;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // What the function itself does
+    private static Summary local(IRFunction f){
+        Summary s = new Summary();
+        for (IR i : f.instructions){
+            if (isGlobal(i.def()))
+                s.mod.put(i.def(), true);
+            for (int u = 0; u < i.useCount(); u++){
+                if (isGlobal(i.useAt(u)))
+                    s.ref.put(i.useAt(u), true);
+            }
+            Var array = null;
+            boolean store = false;
+            if (i instanceof array_load){
+                array = (Var)((array_load)i).var;
+            }
+            else if (i instanceof array_store){
+                array = ((array_store)i).var;
+                store = true;
+            }
+            else if (i instanceof array_assign){
+                array = (Var)((array_assign)i).var;
+                store = true;
+            }
+            if (array == null)
+                continue;
+            if (store)
+                s.modAnyArray = true;
+            if (!array.isLocal)
+                (store ? s.mod : s.ref).put(array, true);
+            else if (store)
+                s.modArrays = true;
+            else
+                s.refArrays = true;
+        }
+        return s;
+    }
+
+    public Summary of(String function){
+        Summary s = summaries.get(function);
+        if (s != null)
+            return s;
+        for (String name : LIBRARY){
+            if (name.equals(function))
+                return OUTPUT;
+        }
+        return EVERYTHING;
+    }
+
+    public Summary of(callInstruction call){
+        return of(call.fun.label.name);
+    }
+
+    private static boolean isGlobal(Var v){
+        return v instanceof NamedVar && !v.isLocal;
+    }
+}
@@ -0,0 +1,10 @@
+package Optimizer;
+
+// A pass that needs the whole program, e.g. to look across calls
+// run() returns whether anything changed, the PassManager then drops the analyses of every function
+// A pipeline with module passes can't be cached per function, see FunctionCache
+
+public abstract class ModulePass extends Pass {
+
+    public abstract boolean run(IRModule module);
+}
@@ -0,0 +1,10 @@
+package Optimizer;
+
+// An IR to IR transformation run by the PassManager
+// Passes are either FunctionPasses or ModulePasses
+
+public abstract class Pass {
+
+    // Short name used in the -time-passes report
+    public abstract String name();
+}
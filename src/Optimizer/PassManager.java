@@ -0,0 +1,152 @@
+package Optimizer;
+
+import IR.IR;
+
+import java.util.ArrayList;
+
+// Runs the optimization pipeline between IR generation and register allocation
+//
+// Function passes run on every function in turn, module passes on the whole program.
+// Whenever a pass reports a change the affected functions drop their cached analyses.
+// Every pass is timed and the instruction count before and after it is recorded,
+// printReport() shows the totals (tig -time-passes).
+
+public class PassManager {
+
+    private ArrayList<Pass> passes = new ArrayList<>();
+
+    // Totals for every entry of passes
+    private long[] nanos;
+    private int[] before;
+    private int[] after;
+    private int[] changes;
+
+    // Most instructions the copies of one unrolled loop can take, by -O level
+    static final int[] UNROLL_BUDGET = { 0, 16, 64 };
+
+    // The pipeline for an optimization level
+    //     -O0 : nothing
+    //     -O1 : cheap cleanups, unrolling of tiny loops, if-conversion
+    //     -O2 : everything
+    public static PassManager forLevel(int level){
+        PassManager pm = new PassManager();
+        if (level >= 1){
+            pm.add(new CleanupPass());
+            if (level == 1){
+                pm.add(new StaticInitPass());
+                pm.add(new UnrollPass(UNROLL_BUDGET[1]));
+            }
+            pm.add(new DCEPass());
+            if (level == 1){
+                pm.add(new IfConversionPass());
+                pm.add(new CleanupPass());
+            }
+        }
+        if (level >= 2){
+            pm.add(new IPCPPass());
+            pm.add(new InlinePass());
+            pm.add(new TailCallPass());
+            pm.add(new SCCPPass());
+            pm.add(new CleanupPass());
+            pm.add(new GVNPass());
+            pm.add(new LICMPass());
+            pm.add(new StaticInitPass());
+            pm.add(new StrengthReductionPass());
+            pm.add(new UnrollPass(UNROLL_BUDGET[2]));
+            pm.add(new GlobalDCEPass());
+            pm.add(new DCEPass());
+            pm.add(new IfConversionPass());
+            pm.add(new CleanupPass());
+        }
+        return pm;
+    }
+
+    public void add(Pass pass){
+        passes.add(pass);
+    }
+
+    public boolean isEmpty(){
+        return passes.isEmpty();
+    }
+
+    // Module passes need the whole program at once,
+    // without them every function can be optimized on its own
+    public boolean hasModulePasses(){
+        for (Pass p : passes){
+            if (p instanceof ModulePass)
+                return true;
+        }
+        return false;
+    }
+
+    // Identifies the pipeline, for cache keys
+    public String describe(){
+        StringBuilder out = new StringBuilder();
+        for (Pass p : passes){
+            out.append(p.name()).append(";");
+        }
+        return out.toString();
+    }
+
+    public ArrayList<IR> run(ArrayList<IR> instructions){
+        if (passes.isEmpty())
+            return instructions;
+        IRModule module = new IRModule(instructions);
+        run(module);
+        return module.toStream();
+    }
+
+    public void run(IRModule module){
+        if (nanos == null){
+            nanos = new long[passes.size()];
+            before = new int[passes.size()];
+            after = new int[passes.size()];
+            changes = new int[passes.size()];
+        }
+
+        for (int p = 0; p < passes.size(); p++){
+            Pass pass = passes.get(p);
+            if (pass instanceof FunctionPass){
+                for (IRFunction f : module.functions){
+                    before[p] += f.size();
+                    long start = System.nanoTime();
+                    boolean changed = ((FunctionPass)pass).run(f);
+                    nanos[p] += System.nanoTime() - start;
+                    if (changed){
+                        f.invalidate();
+                        changes[p]++;
+                    }
+                    after[p] += f.size();
+                }
+            }
+            else {
+                before[p] += module.size();
+                long start = System.nanoTime();
+                boolean changed = ((ModulePass)pass).run(module);
+                nanos[p] += System.nanoTime() - start;
+                if (changed){
+                    module.invalidate();
+                    changes[p]++;
+                }
+                after[p] += module.size();
+            }
+        }
+    }
+
+    public void printReport(){
+        System.out.println("\n-----PASS TIMES START-----");
+        System.out.println(String.format("%-24s %10s %8s %16s", "pass", "time (ms)", "changes", "instructions"));
+        long total = 0;
+        for (int p = 0; p < passes.size(); p++){
+            long n = (nanos == null) ? 0 : nanos[p];
+            int b = (nanos == null) ? 0 : before[p];
+            int a = (nanos == null) ? 0 : after[p];
+            int c = (nanos == null) ? 0 : changes[p];
+            total += n;
+            System.out.println(String.format("%-24s %10.3f %8d %7d -> %-7d (%+d)",
+                    passes.get(p).name(), n / 1e6, c, b, a, a - b));
+        }
+        System.out.println(String.format("%-24s %10.3f", "total", total / 1e6));
+        System.out.println("-----PASS TIMES END--------");
+    }
+}
@@ -0,0 +1,399 @@
+package Optimizer;
+
+import IR.*;
+import RegisterAllocator.BasicBlock;
+import RegisterAllocator.FlowGraph;
+import Util.DiNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+// Sparse conditional constant propagation over a function's flow graph
+//
+// Every var is TOP (no value seen yet), a constant, or BOTTOM (varies).
+// Blocks are only visited once an edge into them is known to be taken,
+// and a branch on constants only takes the edge it will actually take,
+// so code behind a branch that can't happen never spoils the values of the vars.
+// The IR isn't in SSA form, so values are tracked per block (like liveness) instead of per definition.
+//
+// Afterwards
+//     computations with a constant result become "assign, x, c" (movfi for floats)
+//     int constants replace var uses wherever the code generator takes an immediate
+//     branches on constants become gotos or disappear
+//     blocks that are never reached are deleted
+// Leaves the unused labels and assignments behind for the other passes
+
+public class SCCPPass extends FunctionPass {
+
+    private static final Object BOTTOM = new Object();
+
+    private FlowGraph cfg;
+    private IdentityHashMap<Var, Integer> index;
+    private ArrayList<Var> vars;
+    private ModRef modRef;
+
+    private IdentityHashMap<BasicBlock, Object[]> out;
+    private IdentityHashMap<BasicBlock, ArrayList<BasicBlock>> takenFrom;
+    private IdentityHashMap<Label, BasicBlock> blockOf;
+    private IdentityHashMap<BasicBlock, BasicBlock> fallthrough;
+
+    // set whenever constant() puts an immediate in place of a var
+    private boolean substituted;
+
+    public String name(){
+        return "sccp";
+    }
+
+    public boolean run(IRFunction function){
+        cfg = function.cfg();
+        modRef = function.modRef();
+        index = new IdentityHashMap<>();
+        vars = new ArrayList<>();
+        out = new IdentityHashMap<>();
+        takenFrom = new IdentityHashMap<>();
+        blockOf = new IdentityHashMap<>();
+        fallthrough = new IdentityHashMap<>();
+
+        ArrayList<BasicBlock> blocks = cfg.getNodes();
+        for (int b = 0; b < blocks.size(); b++){
+            BasicBlock block = blocks.get(b);
+            if (block.startLabel != null)
+                blockOf.put(block.startLabel, block);
+            // blocks are made in program order after the entry and exit blocks
+            if (block != cfg.exitBlock && b + 1 < blocks.size())
+                fallthrough.put(block, blocks.get(block == cfg.entryBlock ? 2 : b + 1));
+            takenFrom.put(block, new ArrayList<>());
+            for (IR i : block.instructions()){
+                if (i.def() != null)
+                    add(i.def());
+                for (int u = 0; u < i.useCount(); u++){
+                    add(i.useAt(u));
+                }
+            }
+        }
+
+        propagate();
+        return rewrite(function);
+    }
+
+    private void add(Var v){
+        if (!index.containsKey(v)){
+            index.put(v, vars.size());
+            vars.add(v);
+        }
+    }
+
+    private void propagate(){
+        // named vars hold whatever the caller (or the data section) left in them, temps start undefined
+        Object[] entry = new Object[vars.size()];
+        for (int v = 0; v < vars.size(); v++){
+            if (vars.get(v) instanceof NamedVar)
+                entry[v] = BOTTOM;
+        }
+        out.put(cfg.entryBlock, entry);
+
+        ArrayDeque<BasicBlock> work = new ArrayDeque<>();
+        take(cfg.entryBlock, fallthrough.get(cfg.entryBlock), work);
+
+        while (!work.isEmpty()){
+            BasicBlock block = work.poll();
+            Object[] state = blockIn(block);
+            for (IR i : block.instructions()){
+                transfer(i, state);
+            }
+
+            boolean changed = !out.containsKey(block) || !equal(state, out.get(block));
+            out.put(block, state);
+
+            for (BasicBlock succ : successors(block, state)){
+                if (take(block, succ, work))
+                    continue;
+                if (changed && !work.contains(succ))
+                    work.add(succ);
+            }
+        }
+    }
+
+    // Marks the edge from -> to as taken, returns false if it already was
+    private boolean take(BasicBlock from, BasicBlock to, ArrayDeque<BasicBlock> work){
+        if (to == null || takenFrom.get(to).contains(from))
+            return false;
+        takenFrom.get(to).add(from);
+        if (!work.contains(to))
+            work.add(to);
+        return true;
+    }
+
+    private boolean reached(BasicBlock block){
+        return block == cfg.entryBlock || !takenFrom.get(block).isEmpty();
+    }
+
+    private Object[] blockIn(BasicBlock block){
+        Object[] state = new Object[vars.size()];
+        for (BasicBlock pred : takenFrom.get(block)){
+            Object[] predOut = out.get(pred);
+            for (int v = 0; v < state.length; v++){
+                state[v] = meet(state[v], predOut[v]);
+            }
+        }
+        return state;
+    }
+
+    private static Object meet(Object a, Object b){
+        if (a == null)
+            return b;
+        if (b == null || a.equals(b))
+            return a;
+        return BOTTOM;
+    }
+
+    private static boolean equal(Object[] a, Object[] b){
+        for (int v = 0; v < a.length; v++){
+            if (a[v] != b[v] && (a[v] == null || !a[v].equals(b[v])))
+                return false;
+        }
+        return true;
+    }
+
+    // The blocks control can go to after block
+    // (FlowGraph also links a goto or return to the next block, that edge is never taken)
+    private ArrayList<BasicBlock> successors(BasicBlock block, Object[] state){
+        ArrayList<BasicBlock> succ = new ArrayList<>();
+        IR last = block.lastInstruction();
+        if (last instanceof goTo){
+            succ.add(target(((goTo)last).labelOp));
+        }
+        else if (last instanceof ret){
+            succ.add(cfg.exitBlock);
+        }
+        else if (last instanceof branch){
+            Boolean taken = evaluate((branch)last, state);
+            if (taken == null || taken)
+                succ.add(target(((branch)last).labelOp));
+            if (taken == null || !taken)
+                succ.add(fallthrough.get(block));
+        }
+        else {
+            for (DiNode s : block.getSucc()){
+                succ.add((BasicBlock)s);
+            }
+        }
+        return succ;
+    }
+
+    private BasicBlock target(LabelOp op){
+        BasicBlock block = blockOf.get(op.label);
+        return block == null ? cfg.exitBlock : block;
+    }
+
+    private Object value(Operand o, Object[] state){
+        if (o instanceof IntImmediate)
+            return ((IntImmediate)o).val;
+        if (o instanceof FloatImmediate)
+            return ((FloatImmediate)o).val;
+        if (o instanceof Var)
+            return state[index.get(o)];
+        return BOTTOM;
+    }
+
+    private void transfer(IR instruction, Object[] state){
+        Var def = instruction.def();
+
+        if (instruction instanceof callInstruction){
+            // the callee can change the globals it writes
+            ModRef.Summary called = modRef.of((callInstruction)instruction);
+            for (int v = 0; v < vars.size(); v++){
+                if (vars.get(v) instanceof NamedVar && !vars.get(v).isLocal && called.mods(vars.get(v)))
+                    state[v] = BOTTOM;
+            }
+        }
+        if (def == null)
+            return;
+
+        Object result = BOTTOM;
+        if (instruction instanceof assign)
+            result = value(((assign)instruction).right, state);
+        else if (instruction instanceof movfi)
+            result = ((movfi)instruction).src.val;
+        else if (instruction instanceof binop)
+            result = fold((binop)instruction, state);
+        else if (instruction instanceof intToFloat){
+            Object src = value(((intToFloat)instruction).src, state);
+            result = (src instanceof Integer) ? (Object)(float)(Integer)src : src;
+        }
+        state[index.get(def)] = result;
+    }
+
+    private Object fold(binop b, Object[] state){
+        Object l = value(b.left, state);
+        Object r = value(b.right, state);
+        if (l == BOTTOM || r == BOTTOM)
+            return BOTTOM;
+        if (l == null || r == null)
+            return null;
+
+        if (l instanceof Integer && r instanceof Integer){
+            int x = (Integer)l, y = (Integer)r;
+            if (b instanceof add) return x + y;
+            if (b instanceof sub) return x - y;
+            if (b instanceof mult) return x * y;
+            if (b instanceof div) return (y == 0) ? BOTTOM : (Object)(x / y);
+            if (b instanceof and) return x & y;
+            if (b instanceof or) return x | y;
+        }
+        if (l instanceof Float && r instanceof Float){
+            float x = (Float)l, y = (Float)r;
+            float f;
+            if (b instanceof add) f = x + y;
+            else if (b instanceof sub) f = x - y;
+            else if (b instanceof mult) f = x * y;
+            else if (b instanceof div) f = x / y;
+            else return BOTTOM;
+            // li.s can't spell these
+            return (Float.isNaN(f) || Float.isInfinite(f)) ? BOTTOM : (Object)f;
+        }
+        return BOTTOM;
+    }
+
+    // Whether a branch is taken, null if that isn't known
+    private Boolean evaluate(branch b, Object[] state){
+        Object l = value(b.left, state);
+        Object r = value(b.right, state);
+        if (l == null || r == null || l == BOTTOM || r == BOTTOM)
+            return null;
+        int c;
+        if (l instanceof Integer && r instanceof Integer)
+            c = Integer.compare((Integer)l, (Integer)r);
+        else if (l instanceof Float && r instanceof Float)
+            c = Float.compare((Float)l, (Float)r);
+        else
+            return null;
+
+        if (b instanceof breq) return c == 0;
+        if (b instanceof brneq) return c != 0;
+        if (b instanceof brlt) return c < 0;
+        if (b instanceof brgt) return c > 0;
+        if (b instanceof brleq) return c <= 0;
+        if (b instanceof brgeq) return c >= 0;
+        return null;
+    }
+
+    private boolean rewrite(IRFunction function){
+        IdentityHashMap<IR, BasicBlock> blockOfInstruction = new IdentityHashMap<>();
+        for (BasicBlock block : cfg.getNodes()){
+            for (IR i : block.instructions()){
+                blockOfInstruction.put(i, block);
+            }
+        }
+
+        ArrayList<IR> rewritten = new ArrayList<>(function.instructions.size());
+        boolean changed = false;
+        substituted = false;
+        BasicBlock current = null;
+        Object[] state = null;
+        for (IR instruction : function.instructions){
+            BasicBlock block = blockOfInstruction.get(instruction);
+            if (block == null || instruction instanceof FunctionEpilogue){
+                rewritten.add(instruction);
+                continue;
+            }
+            if (!reached(block)){
+                changed = true;
+                continue;
+            }
+            if (block != current){
+                current = block;
+                state = blockIn(block);
+            }
+
+            IR replacement = simplify(instruction, state);
+            transfer(instruction, state);
+            if (replacement != instruction)
+                changed = true;
+            if (replacement != null)
+                rewritten.add(replacement);
+        }
+        function.instructions = rewritten;
+        return changed || substituted;
+    }
+
+    // The instruction to emit in place of instruction, null to drop it
+    private IR simplify(IR instruction, Object[] state){
+        if (instruction instanceof branch){
+            branch b = (branch)instruction;
+            Boolean taken = evaluate(b, state);
+            if (taken == null){
+                b.right = constant(b.right, state, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                return b;
+            }
+            return taken ? new goTo(b.labelOp) : null;
+        }
+
+        Var def = instruction.def();
+        if (def != null && (instruction instanceof binop || instruction instanceof intToFloat || instruction instanceof assign)){
+            Object[] after = state.clone();
+            transfer(instruction, after);
+            Object result = after[index.get(def)];
+            if (result instanceof Integer){
+                if (instruction instanceof assign && ((assign)instruction).right instanceof IntImmediate)
+                    return instruction;
+                return new assign(def, new IntImmediate((Integer)result), true);
+            }
+            if (result instanceof Float && def instanceof TempVar)
+                return new movfi(new FloatImmediate((Float)result), def);
+        }
+
+        if (instruction instanceof binop && ((binop)instruction).isInt()){
+            binop b = (binop)instruction;
+            if (b instanceof add){
+                // addi takes 16 bits
+                b.left = constant(b.left, state, Short.MIN_VALUE, Short.MAX_VALUE);
+                b.right = constant(b.right, state, Short.MIN_VALUE, Short.MAX_VALUE);
+            }
+            else if (b instanceof sub){
+                b.right = constant(b.right, state, Short.MIN_VALUE, Short.MAX_VALUE);
+            }
+            else if (b instanceof mult || b instanceof div){
+                b.left = constant(b.left, state, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                b.right = constant(b.right, state, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            }
+            else {
+                // andi and ori zero extend
+                b.left = constant(b.left, state, 0, 0xffff);
+                b.right = constant(b.right, state, 0, 0xffff);
+            }
+        }
+        else if (instruction instanceof assign && ((assign)instruction).isInt()){
+            ((assign)instruction).right = constant(((assign)instruction).right, state, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        else if (instruction instanceof array_load){
+            ((array_load)instruction).index = constant(((array_load)instruction).index, state, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        else if (instruction instanceof array_store){
+            ((array_store)instruction).index = constant(((array_store)instruction).index, state, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        else if (instruction instanceof callInstruction){
+            ArrayList<Operand> args = ((callInstruction)instruction).args;
+            for (int a = 0; a < args.size(); a++){
+                args.set(a, constant(args.get(a), state, Integer.MIN_VALUE, Integer.MAX_VALUE));
+            }
+        }
+        else if (instruction instanceof ret && ((ret)instruction).retVal != null){
+            ((ret)instruction).retVal = constant(((ret)instruction).retVal, state, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        }
+        return instruction;
+    }
+
+    // The int constant o holds if it fits in [min, max], otherwise o itself
+    private Operand constant(Operand o, Object[] state, int min, int max){
+        if (!(o instanceof Var) || !o.isInt())
+            return o;
+        Object v = state[index.get(o)];
+        if (v instanceof Integer && (Integer)v >= min && (Integer)v <= max){
+            substituted = true;
+            return new IntImmediate((Integer)v);
+        }
+        return o;
+    }
+}
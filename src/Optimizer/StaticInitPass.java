@@ -0,0 +1,172 @@
+package Optimizer;
+
+import Config.Config;
+import IR.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+// Static initialization of globals
+//
+// main starts by giving the globals their initial values, one assign per scalar and a store
+// loop per array (see IR2GenVisitor.visit(VarDec)):
+//     assign, _x, 5                       array_assign, _a, 100, 3
+//                                         assign, t, 0
+//                                     L:  array_store, _a, t, 3
+//                                         add, t, 1, t
+//                                         brneq, t, 100, L
+// When the value is a constant it can sit in .data from the start instead: the array_assign
+// becomes static (codegen writes .word 3:100) and the loop goes, the assign to a scalar becomes
+// a static array_assign of 1 element. Zero needs nothing at all, .data starts out zero.
+//
+// Only the straight line of code at the top of main is looked at, up to the first call (a function
+// could read a global) or jump, and only the first thing done to a global there.
+// The global allocator wants every var main reads assigned in main, scalars keep their assign for it.
+
+public class StaticInitPass extends FunctionPass {
+
+    public String name(){
+        return "static-init";
+    }
+
+    public boolean run(IRFunction function){
+        if (!function.isMain())
+            return false;
+
+        ArrayList<IR> code = function.instructions;
+        IdentityHashMap<Var, Immediate> constants = new IdentityHashMap<>();
+        IdentityHashMap<Var, Boolean> touched = new IdentityHashMap<>();
+        IdentityHashMap<IR, Boolean> removed = new IdentityHashMap<>();
+        IdentityHashMap<IR, IR> replaced = new IdentityHashMap<>();
+
+        int n = 1;
+        while (n < code.size()){
+            IR i = code.get(n);
+
+            if (i instanceof array_assign){
+                array_assign a = (array_assign)i;
+                int loop = initLoop(code, n);
+                if (loop < 0)
+                    break;
+                Immediate value = constant(a.val, a.isInt(), constants);
+                if (value != null && !touched.containsKey(a.var)){
+                    if (!isZero(value)){
+                        array_assign init = new array_assign(a.var, a.count, value, a.isInt());
+                        init.isStatic = true;
+                        replaced.put(a, init);
+                    }
+                    for (int l = n + 1; l < loop; l++){
+                        removed.put(code.get(l), true);
+                    }
+                }
+                touched.put(a.var, true);
+                n = loop;
+                continue;
+            }
+            if (i instanceof Label || i instanceof controlFlowInstruction)
+                break;
+
+            if (i instanceof assign && isGlobal(i.def()) && !touched.containsKey(i.def())
+                    && Config.REG_ALLOCATOR != Config.RegAllocator.GLOBAL){
+                assign a = (assign)i;
+                Immediate value = constant(a.right, a.isInt(), constants);
+                if (value != null){
+                    if (isZero(value)){
+                        removed.put(a, true);
+                    }
+                    else {
+                        array_assign init = new array_assign((NamedVar)a.var, new IntImmediate(1), value, a.isInt());
+                        init.isStatic = true;
+                        replaced.put(a, init);
+                    }
+                }
+            }
+            else if (i instanceof movfi){
+                constants.put(i.def(), ((movfi)i).src);
+            }
+            else if (i instanceof intToFloat && ((intToFloat)i).src instanceof IntImmediate){
+                constants.put(i.def(), new FloatImmediate(((IntImmediate)((intToFloat)i).src).val));
+            }
+            else if (i.def() != null){
+                constants.remove(i.def());
+            }
+
+            // reads and writes of a global fix its value for good
+            if (i.def() != null && isGlobal(i.def()))
+                touched.put(i.def(), true);
+            for (int u = 0; u < i.useCount(); u++){
+                if (isGlobal(i.useAt(u)))
+                    touched.put(i.useAt(u), true);
+            }
+            if (i instanceof array_load)
+                touched.put((Var)((array_load)i).var, true);
+            else if (i instanceof array_store)
+                touched.put(((array_store)i).var, true);
+            n++;
+        }
+
+        if (removed.isEmpty() && replaced.isEmpty())
+            return false;
+        ArrayList<IR> out = new ArrayList<>(code.size());
+        for (IR i : code){
+            if (!removed.containsKey(i))
+                out.add(replaced.getOrDefault(i, i));
+        }
+        function.instructions = out;
+        return true;
+    }
+
+    // Index right after the store loop following the array_assign at n, or -1 if it isn't there
+    // An int value for a float array is converted in between.
+    private static int initLoop(ArrayList<IR> code, int n){
+        array_assign a = (array_assign)code.get(n);
+        Operand value = a.val;
+        if (n + 1 < code.size() && code.get(n + 1) instanceof intToFloat && ((intToFloat)code.get(n + 1)).src == a.val){
+            value = code.get(n + 1).def();
+            n++;
+        }
+        if (n + 5 >= code.size())
+            return -1;
+        IR start = code.get(n + 1), label = code.get(n + 2), store = code.get(n + 3),
+                step = code.get(n + 4), test = code.get(n + 5);
+        if (!(start instanceof assign) || !(label instanceof Label) || !(store instanceof array_store)
+                || !(step instanceof add) || !(test instanceof brneq))
+            return -1;
+        Var t = start.def();
+        array_store s = (array_store)store;
+        brneq b = (brneq)test;
+        if (!isInt(((assign)start).right, 0) || s.var != a.var || s.index != t || s.byteIndex || s.right != value
+                || step.def() != t || ((add)step).left != t || !isInt(((add)step).right, 1)
+                || b.left != t || !isInt(b.right, a.count.val) || b.labelOp.label != label)
+            return -1;
+        return n + 6;
+    }
+
+    // The constant value an int or float global starts with, or null
+    private static Immediate constant(Operand value, boolean isInt, IdentityHashMap<Var, Immediate> constants){
+        if (value instanceof Var)
+            value = constants.get(value);
+        if (isInt && value instanceof IntImmediate)
+            return (Immediate)value;
+        if (!isInt && value instanceof FloatImmediate)
+            return (Immediate)value;
+        if (!isInt && value instanceof IntImmediate)
+            return new FloatImmediate(((IntImmediate)value).val);
+        return null;
+    }
+
+    private static boolean isZero(Immediate value){
+        if (value instanceof IntImmediate)
+            return ((IntImmediate)value).val == 0;
+        // -0.0 has a bit set
+        return Float.floatToRawIntBits(((FloatImmediate)value).val) == 0;
+    }
+
+    private static boolean isInt(Operand o, int val){
+        return o instanceof IntImmediate && ((IntImmediate)o).val == val;
+    }
+
+    private static boolean isGlobal(Var v){
+        return v instanceof NamedVar && !v.isLocal;
+    }
+}
@@ -0,0 +1,278 @@
+package Optimizer;
+
+import IR.*;
+import RegisterAllocator.BasicBlock;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+
+// Strength reduction of induction variables
+//
+// A basic induction variable i of a loop is assigned exactly once in it, by i := i + c
+// (or i := i - c, or t := i + c; i := t) with c constant. Every i * k in the loop, and the
+// i * 4 hidden in every a[i], then grows by c * k per trip around the loop too, so it can
+// be kept in a var r of its own:
+//     preheader:           r := i * k
+//     after i's update:    r := r + c * k
+// The multiplications become copies of r, array accesses take r as a byte offset
+// (array_load/array_store with byteIndex set, codegen skips the shift).
+//
+// Linear function test replacement: a branch comparing i with a constant n compares
+// r with n * k instead (k > 0). When that leaves i with nothing else to do in the loop
+// and i is dead after it, i's update goes away.
+
+public class StrengthReductionPass extends FunctionPass {
+
+    // A basic induction variable
+    private static class Induction {
+        Var var;
+        int step;
+        IR update;          // the last instruction assigning var
+        IR add = null;      // t := i + c when update is i := t
+        // reduced var for every factor, in order of appearance
+        LinkedHashMap<Integer, Var> reduced = new LinkedHashMap<>();
+    }
+
+    public String name(){
+        return "strength-reduce";
+    }
+
+    public boolean run(IRFunction function){
+        boolean changed = false;
+        boolean reduced = true;
+        while (reduced){
+            reduced = false;
+            for (Loop loop : function.loops().innermostFirst()){
+                if (reduce(function, loop)){
+                    function.invalidate();
+                    reduced = changed = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean reduce(IRFunction function, Loop loop){
+        if (!(loop.header.startLabel instanceof SharedLabel))
+            return false;
+
+        IdentityHashMap<Var, Integer> defs = new IdentityHashMap<>();
+        IdentityHashMap<Var, IR> defOf = new IdentityHashMap<>();
+        IdentityHashMap<Var, Integer> uses = new IdentityHashMap<>();
+        ArrayList<IR> body = new ArrayList<>();
+        ModRef.Summary called = new ModRef.Summary();
+        for (BasicBlock block : loop.blocks){
+            for (IR i : block.instructions()){
+                body.add(i);
+                if (i.def() != null){
+                    defs.merge(i.def(), 1, Integer::sum);
+                    defOf.put(i.def(), i);
+                }
+                if (i instanceof callInstruction)
+                    called.add(function.modRef().of((callInstruction)i));
+            }
+        }
+        for (IR i : function.instructions){
+            for (int u = 0; u < i.useCount(); u++){
+                uses.merge(i.useAt(u), 1, Integer::sum);
+            }
+        }
+
+        IdentityHashMap<Var, Induction> ivs = new IdentityHashMap<>();
+        for (Var v : defs.keySet()){
+            if (defs.get(v) != 1 || !v.isInt() || (isGlobal(v) && called.mods(v)))
+                continue;
+            Induction iv = induction(v, defOf.get(v), defs, defOf, uses);
+            if (iv != null)
+                ivs.put(v, iv);
+        }
+        if (ivs.isEmpty())
+            return false;
+
+        // i * k and a[i] in the loop, the updates themselves aside
+        IdentityHashMap<IR, Induction> candidates = new IdentityHashMap<>();
+        IdentityHashMap<IR, Integer> factors = new IdentityHashMap<>();
+        for (IR i : body){
+            Induction iv = null;
+            int factor = 0;
+            if (i instanceof array_load && !((array_load)i).byteIndex){
+                iv = ivs.get(((array_load)i).index);
+                factor = 4;
+            }
+            else if (i instanceof array_store && !((array_store)i).byteIndex){
+                iv = ivs.get(((array_store)i).index);
+                factor = 4;
+            }
+            else if (i instanceof mult && ((mult)i).isInt() && i.def() != null){
+                mult m = (mult)i;
+                if (m.right instanceof IntImmediate){
+                    iv = ivs.get(m.left);
+                    factor = ((IntImmediate)m.right).val;
+                }
+                else if (m.left instanceof IntImmediate){
+                    iv = ivs.get(m.right);
+                    factor = ((IntImmediate)m.left).val;
+                }
+            }
+            if (iv == null || iv.update == i || iv.add == i || factor == 0 || factor == 1)
+                continue;
+            // codegen turns those into a shift or two already, another var to carry around costs more
+            if (i instanceof mult && isShifts(factor))
+                continue;
+            // the increment has to fit addi's immediate
+            long increment = (long)iv.step * factor;
+            if (increment < -32768 || increment > 32767)
+                continue;
+            candidates.put(i, iv);
+            factors.put(i, factor);
+        }
+        if (candidates.isEmpty())
+            return false;
+
+        // what goes into the preheader, and what goes after every update
+        ArrayList<IR> preheader = new ArrayList<>();
+        IdentityHashMap<IR, ArrayList<IR>> after = new IdentityHashMap<>();
+        IdentityHashMap<IR, IR> replacements = new IdentityHashMap<>();
+        for (IR i : body){
+            Induction iv = candidates.get(i);
+            if (iv == null)
+                continue;
+            int factor = factors.get(i);
+            Var r = iv.reduced.get(factor);
+            if (r == null){
+                r = function.newTemp(true);
+                iv.reduced.put(factor, r);
+                preheader.add(new mult(iv.var, new IntImmediate(factor), r, true));
+                after.computeIfAbsent(iv.update, k -> new ArrayList<>())
+                        .add(new add(r, new IntImmediate(iv.step * factor), r, true));
+            }
+
+            if (i instanceof array_load){
+                ((array_load)i).index = r;
+                ((array_load)i).byteIndex = true;
+            }
+            else if (i instanceof array_store){
+                ((array_store)i).index = r;
+                ((array_store)i).byteIndex = true;
+            }
+            else {
+                replacements.put(i, new assign(i.def(), r, true));
+            }
+        }
+
+        // compare the reduced var instead, where there's one with a positive factor
+        IdentityHashMap<Var, Boolean> replaced = new IdentityHashMap<>();
+        for (IR i : body){
+            if (!(i instanceof branch) || !((branch)i).isInt())
+                continue;
+            branch b = (branch)i;
+            Induction iv = ivs.get(b.left);
+            if (iv == null || !(b.right instanceof IntImmediate))
+                continue;
+            for (int factor : iv.reduced.keySet()){
+                if (factor > 0){
+                    b.left = iv.reduced.get(factor);
+                    b.right = new IntImmediate(((IntImmediate)b.right).val * factor);
+                    replaced.put(iv.var, true);
+                    break;
+                }
+            }
+        }
+
+        // i's update is all that's left of it
+        IdentityHashMap<IR, Boolean> dead = new IdentityHashMap<>();
+        Liveness liveness = function.liveness();
+        ArrayList<BasicBlock> exits = loop.exits();
+        for (Var v : replaced.keySet()){
+            Induction iv = ivs.get(v);
+            boolean used = false;
+            for (IR i : body){
+                if (i == iv.update || i == iv.add)
+                    continue;
+                i = replacements.getOrDefault(i, i);
+                for (int u = 0; u < i.useCount(); u++){
+                    used |= i.useAt(u) == v;
+                }
+            }
+            int index = liveness.index(v);
+            for (BasicBlock exit : exits){
+                BitSet live = liveness.liveIn(exit);
+                used |= live.get(index);
+            }
+            if (used)
+                continue;
+
+            dead.put(iv.update, true);
+            if (iv.add != null)
+                dead.put(iv.add, true);
+        }
+
+        // the flow graph still matches the instructions, the preheader goes in first
+        LICMPass.insertPreheader(function, loop, preheader, new IdentityHashMap<>());
+        ArrayList<IR> out = new ArrayList<>(function.instructions.size() + after.size());
+        for (IR i : function.instructions){
+            if (!dead.containsKey(i))
+                out.add(replacements.getOrDefault(i, i));
+            if (after.containsKey(i))
+                out.addAll(after.get(i));
+        }
+        function.instructions = out;
+        return true;
+    }
+
+    // v's single assignment in the loop, if it makes v an induction variable
+    private Induction induction(Var v, IR update, IdentityHashMap<Var, Integer> defs,
+                                IdentityHashMap<Var, IR> defOf, IdentityHashMap<Var, Integer> uses){
+        Induction iv = new Induction();
+        iv.var = v;
+        iv.update = update;
+
+        // t := i + c; i := t, with t used only there
+        IR step = update;
+        if (update instanceof assign && ((assign)update).right instanceof Var){
+            Var t = (Var)((assign)update).right;
+            if (!(t instanceof TempVar) || defs.get(t) == null || defs.get(t) != 1 || uses.get(t) != 1)
+                return null;
+            step = defOf.get(t);
+            iv.add = step;
+        }
+
+        if (step instanceof add){
+            add a = (add)step;
+            if (a.left == v && a.right instanceof IntImmediate)
+                iv.step = ((IntImmediate)a.right).val;
+            else if (a.right == v && a.left instanceof IntImmediate)
+                iv.step = ((IntImmediate)a.left).val;
+            else
+                return null;
+        }
+        else if (step instanceof sub){
+            sub s = (sub)step;
+            if (s.left == v && s.right instanceof IntImmediate)
+                iv.step = -((IntImmediate)s.right).val;
+            else
+                return null;
+        }
+        else {
+            return null;
+        }
+
+        // a lone add/sub needs to assign v itself
+        if (iv.add == null && step.def() != v)
+            return null;
+        return iv;
+    }
+
+    // Multiplications MIPSGenVisitor does with shifts and adds from -O1 on
+    private static boolean isShifts(int factor){
+        long c = Math.abs((long)factor);
+        return Long.bitCount(c) <= 2 || Long.bitCount(c + (c & -c)) == 1;
+    }
+
+    private static boolean isGlobal(Var v){
+        return v instanceof NamedVar && !v.isLocal;
+    }
+}
@@ -0,0 +1,150 @@
+package Optimizer;
+
+import Config.Config;
+import IR.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+
+// Tail calls
+//
+// A call is in tail position when nothing but labels and gotos lie between it and the return:
+//     call f, ...     followed by the end of a function without a result
+//     callr t, f, ... followed by "return t"
+// A function calling itself that way jumps back to its start instead, after assigning the
+// arguments to its params, so deep recursion becomes a loop.
+// Other tail calls are marked, codegen pops the caller's frame before jumping to the callee,
+// which then returns straight to the caller's caller. The callee can't take more arguments than
+// the caller (it saves them in the stack space set aside for the caller's) or more than fit in
+// the argument registers, and has to be a function of the program, not a library routine.
+
+public class TailCallPass extends ModulePass {
+
+    public String name(){
+        return "tailcall";
+    }
+
+    public boolean run(IRModule module){
+        boolean changed = false;
+        for (IRFunction f : module.functions){
+            if (f.isMain() || !(f.label() instanceof FunctionPrologue))
+                continue;
+            if (tailCalls(f, module)){
+                f.invalidate();
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean tailCalls(IRFunction f, IRModule module){
+        FunctionPrologue prologue = (FunctionPrologue)f.label();
+        IdentityHashMap<Label, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < f.instructions.size(); i++){
+            if (f.instructions.get(i) instanceof Label)
+                positions.put((Label)f.instructions.get(i), i);
+        }
+
+        boolean changed = false;
+        SharedLabel entry = null;
+        ArrayList<IR> out = new ArrayList<>(f.instructions.size());
+        for (int i = 0; i < f.instructions.size(); i++){
+            IR instruction = f.instructions.get(i);
+            if (!(instruction instanceof callInstruction) || !isTail(f, i, positions)){
+                out.add(instruction);
+                continue;
+            }
+
+            callInstruction call = (callInstruction)instruction;
+            IRFunction callee = module.getFunction(call.fun.label.name);
+            // the global allocator can't yet handle a param that's reassigned in a loop
+            if (callee == f && call.args.size() == prologue.arguments.size()
+                    && Config.REG_ALLOCATOR != Config.RegAllocator.GLOBAL){
+                if (entry == null)
+                    entry = f.newLabel("entry");
+                out.addAll(reassignParams(f, prologue.arguments, call.args));
+                out.add(new goTo(new LabelOp(entry)));
+                changed = true;
+                continue;
+            }
+            if (callee != null && !callee.isMain() && callee.label() instanceof FunctionPrologue
+                    && call.args.size() <= 3
+                    && ((FunctionPrologue)callee.label()).arguments.size() <= prologue.arguments.size()){
+                call.tail = true;
+                changed = true;
+            }
+            out.add(instruction);
+        }
+        if (entry != null)
+            out.add(1, entry);
+        f.instructions = out;
+        return changed;
+    }
+
+    // Whether the call at i is followed by nothing but the return
+    private boolean isTail(IRFunction f, int i, IdentityHashMap<Label, Integer> positions){
+        callInstruction call = (callInstruction)f.instructions.get(i);
+        Operand result = (call instanceof callr) ? ((callr)call).retVal : null;
+        Label epilogue = ((FunctionPrologue)f.label()).epilogueLabel;
+        HashSet<Integer> seen = new HashSet<>();
+        int next = i + 1;
+        while (next < f.instructions.size() && seen.add(next)){
+            IR instruction = f.instructions.get(next);
+            if (instruction == epilogue || instruction instanceof FunctionEpilogue)
+                return call instanceof call;
+            if (instruction instanceof ret){
+                Operand value = ((ret)instruction).retVal;
+                if (call instanceof callr)
+                    return value != null && value == result;
+                return value == null;
+            }
+            if (instruction instanceof goTo){
+                Integer target = positions.get(((goTo)instruction).labelOp.label);
+                if (target == null)
+                    return false;
+                next = target;
+            }
+            else if (instruction instanceof Label){
+                next++;
+            }
+            // x := t; return x, with x a local
+            else if (result != null && instruction instanceof assign && ((assign)instruction).right == result
+                    && instruction.def() != null && instruction.def().isLocal){
+                result = instruction.def();
+                next++;
+            }
+            else {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // params := args all at once, args reading a param that's assigned before them go through temporaries
+    private ArrayList<IR> reassignParams(IRFunction f, ArrayList<NamedVar> params, ArrayList<Operand> args){
+        ArrayList<IR> out = new ArrayList<>();
+        Operand[] values = new Operand[args.size()];
+        for (int a = 0; a < args.size(); a++){
+            Operand value = args.get(a);
+            NamedVar param = params.get(a);
+            if ((value instanceof Var && params.contains(value) && value != param)
+                    || (value instanceof FloatImmediate) || (value.isInt() && !param.isInt())){
+                Var temp = f.newTemp(param.isInt());
+                if (value instanceof FloatImmediate)
+                    out.add(new movfi((FloatImmediate)value, temp));
+                else if (value.isInt() && !param.isInt())
+                    out.add(new intToFloat(value, temp));
+                else
+                    out.add(new assign(temp, value, param.isInt()));
+                value = temp;
+            }
+            values[a] = value;
+        }
+        for (int a = 0; a < args.size(); a++){
+            if (values[a] != params.get(a))
+                out.add(new assign(params.get(a), values[a], params.get(a).isInt()));
+        }
+        return out;
+    }
+}
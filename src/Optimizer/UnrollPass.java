@@ -0,0 +1,413 @@
+package Optimizer;
+
+import Config.Config;
+import IR.*;
+import RegisterAllocator.BasicBlock;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+// Loop unrolling
+//
+// Works on innermost loops laid out as one stretch of code, counted by an int induction variable v
+// (assigned once per trip, v := v + c) against a bound n that doesn't change in the loop:
+//     top tested (for, while)             bottom tested (array initialization)
+//     H:  br v, n, exit                   H:  body
+//         body                                br v, n, H
+//         goto H
+// The body is copied k times per trip, so only every k-th trip pays for the test and the jump.
+//
+// When v's start and n are constants the number of trips T is known:
+//     T copies fit the budget          the loop goes away, T copies of the body are left
+//     otherwise                        T % k copies go in front, the loop then does k at a time
+// Otherwise a top tested loop gets a new loop in front of it, running k copies while v + (k-1)c
+// still passes the test, the original loop is left to do the trips that remain.
+//
+// The budget caps the instructions in the copies of one loop, PassManager picks it by -O level.
+// Nothing is unrolled for the global allocator.
+
+public class UnrollPass extends FunctionPass {
+
+    // Most copies of the body per trip
+    static final int MAX_FACTOR = 4;
+
+    // When the loop keeps going
+    private enum Cond { LT, LE, GT, GE, EQ, NE }
+
+    private int budget;
+
+    // Headers of loops made by unrolling, and of loops left over as remainders
+    private IdentityHashMap<Label, Boolean> done = new IdentityHashMap<>();
+
+    public UnrollPass(int budget){
+        this.budget = budget;
+    }
+
+    public String name(){
+        return "unroll";
+    }
+
+    public boolean run(IRFunction function){
+        // the global allocator loses track of v in the straight line copies, v := v + c after v := v + c
+        if (Config.REG_ALLOCATOR == Config.RegAllocator.GLOBAL)
+            return false;
+        boolean changed = false;
+        boolean unrolled = true;
+        while (unrolled){
+            unrolled = false;
+            for (Loop loop : function.loops().innermostFirst()){
+                if (unroll(function, loop)){
+                    function.invalidate();
+                    unrolled = changed = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean unroll(IRFunction function, Loop loop){
+        Label header = loop.header.startLabel;
+        if (!(header instanceof SharedLabel) || done.containsKey(header))
+            return false;
+        for (Loop other : function.loops().innermostFirst()){
+            if (other.parent == loop)
+                return false;
+        }
+
+        // the loop has to be the instructions h .. e and nothing else
+        ArrayList<IR> code = function.instructions;
+        IdentityHashMap<IR, BasicBlock> blockOf = new IdentityHashMap<>();
+        int count = 0;
+        for (BasicBlock block : loop.blocks){
+            for (IR i : block.instructions()){
+                blockOf.put(i, block);
+                count++;
+            }
+        }
+        int h = code.indexOf(header);
+        if (h < 1)
+            return false;
+        int e = h;
+        for (int seen = 0; seen < count; seen++){
+            e++;
+            while (e < code.size() && code.get(e) instanceof Label)
+                e++;
+            if (e >= code.size() || !blockOf.containsKey(code.get(e)))
+                return false;
+        }
+
+        // the back edge is the only jump to the header
+        IR latch = code.get(e);
+        for (IR i : code){
+            if (i != latch && jumpsTo(i, header))
+                return false;
+        }
+
+        boolean topTested;
+        branch test;
+        int bodyStart;
+        if (latch instanceof goTo && code.get(h + 1) instanceof branch){
+            test = (branch)code.get(h + 1);
+            int target = code.indexOf(test.labelOp.label);
+            if (target >= h && target <= e)
+                return false;
+            topTested = true;
+            bodyStart = h + 2;
+        }
+        else if (latch instanceof branch && jumpsTo(latch, header)){
+            test = (branch)latch;
+            topTested = false;
+            bodyStart = h + 1;
+        }
+        else {
+            return false;
+        }
+        if (!test.isInt() || !(test.left instanceof Var))
+            return false;
+        Cond cond = cond(test, topTested);
+        if (cond == null)
+            return false;
+
+        // v, assigned once per trip by a constant step
+        Var v = (Var)test.left;
+        ModRef.Summary called = new ModRef.Summary();
+        IdentityHashMap<Var, Integer> defs = new IdentityHashMap<>();
+        IR update = null;
+        for (int n = h; n <= e; n++){
+            IR i = code.get(n);
+            if (i instanceof callInstruction)
+                called.add(function.modRef().of((callInstruction)i));
+            if (i.def() != null){
+                defs.merge(i.def(), 1, Integer::sum);
+                if (i.def() == v)
+                    update = i;
+            }
+        }
+        if (update == null || defs.get(v) != 1 || (isGlobal(v) && called.mods(v)) || !v.isInt())
+            return false;
+        if (!function.dominators().dominates(blockOf.get(update), blockOf.get(latch)))
+            return false;
+        Integer step = step(v, update, blockOf, code, h, e);
+        if (step == null || step == 0)
+            return false;
+        Operand bound = test.right;
+        if (bound instanceof Var && (defs.containsKey(bound) || (isGlobal((Var)bound) && called.mods((Var)bound))))
+            return false;
+        if (!(bound instanceof Var) && !(bound instanceof IntImmediate))
+            return false;
+
+        ArrayList<IR> body = new ArrayList<>(code.subList(bodyStart, e));
+        int size = 0;
+        for (IR i : body){
+            if (i instanceof instruction)
+                size++;
+        }
+        if (!topTested)
+            size++;
+        if (size == 0)
+            return false;
+        int factor = Math.min(MAX_FACTOR, budget / size);
+
+        // what's known coming into the loop
+        IdentityHashMap<Var, Long> constants = constantsBefore(code, h);
+        Long init = constants.get(v);
+        Long n = (bound instanceof IntImmediate) ? Long.valueOf(((IntImmediate)bound).val)
+                : constants.get(bound);
+        long trips = (init == null || n == null) ? -1 : trips(cond, init, step, n, topTested ? 0 : 1);
+
+        ArrayList<IR> out = new ArrayList<>();
+        if (trips >= 0 && trips * size <= budget){
+            // all of it
+            for (long t = 0; t < trips; t++){
+                out.addAll(copy(function, body));
+            }
+            // the exit isn't always next, an else branch can sit in between
+            if (topTested)
+                out.add(new goTo(test.labelOp));
+        }
+        else if (trips >= 0){
+            if (factor < 2 || trips < 2)
+                return false;
+            factor = (int)Math.min(factor, trips);
+            for (int k = factor; k >= 2; k--){
+                if (trips % k == 0){
+                    factor = k;
+                    break;
+                }
+            }
+            for (long t = 0; t < trips % factor; t++){
+                out.addAll(copy(function, body));
+            }
+            out.add(header);
+            if (topTested)
+                out.add(test);
+            for (int k = 0; k < factor; k++){
+                out.addAll(copy(function, body));
+            }
+            out.add(latch);
+            done.put(header, true);
+        }
+        else {
+            // v + (k-1)c past the bound leaves the rest to the original loop
+            if (!topTested || factor < 2 || cond == Cond.EQ || cond == Cond.NE)
+                return false;
+            if ((step > 0) != (cond == Cond.LT || cond == Cond.LE))
+                return false;
+            long ahead = (long)(factor - 1) * step;
+            if (ahead < -32768 || ahead > 32767)
+                return false;
+            SharedLabel unrolled = function.newLabel("unroll");
+            Var last = function.newTemp(true);
+            out.add(unrolled);
+            out.add(new add(v, new IntImmediate((int)ahead), last, true));
+            out.add(sameBranch(test, last, header));
+            for (int k = 0; k < factor; k++){
+                out.addAll(copy(function, body));
+            }
+            out.add(new goTo(new LabelOp(unrolled)));
+            out.addAll(code.subList(h, e + 1));
+            done.put(unrolled, true);
+            done.put(header, true);
+        }
+
+        ArrayList<IR> result = new ArrayList<>(code.size() + out.size());
+        result.addAll(code.subList(0, h));
+        result.addAll(out);
+        result.addAll(code.subList(e + 1, code.size()));
+        function.instructions = result;
+        return true;
+    }
+
+    // The loop keeps going while v cond n
+    private static Cond cond(branch test, boolean topTested){
+        Cond c;
+        if (test instanceof brlt) c = Cond.LT;
+        else if (test instanceof brleq) c = Cond.LE;
+        else if (test instanceof brgt) c = Cond.GT;
+        else if (test instanceof brgeq) c = Cond.GE;
+        else if (test instanceof breq) c = Cond.EQ;
+        else if (test instanceof brneq) c = Cond.NE;
+        else return null;
+        if (!topTested)
+            return c;
+        // a top test branches out of the loop
+        switch (c){
+            case LT: return Cond.GE;
+            case LE: return Cond.GT;
+            case GT: return Cond.LE;
+            case GE: return Cond.LT;
+            case EQ: return Cond.NE;
+            default: return Cond.EQ;
+        }
+    }
+
+    // Trips through the loop with v going init, init + step, ..., the test first made after `first` steps,
+    // or -1 if the loop doesn't end by itself
+    static long trips(Cond cond, long init, long step, long n, int first){
+        if (!holds(cond, init + first * step, n))
+            return first;
+        switch (cond){
+            case LT: return step > 0 ? Math.floorDiv(n - init + step - 1, step) : -1;
+            case LE: return step > 0 ? Math.floorDiv(n - init, step) + 1 : -1;
+            case GT: return step < 0 ? Math.floorDiv(init - n - step - 1, -step) : -1;
+            case GE: return step < 0 ? Math.floorDiv(init - n, -step) + 1 : -1;
+            case EQ: return first + 1;
+            default:
+                if ((n - init) % step != 0 || (n - init) / step < first)
+                    return -1;
+                return (n - init) / step;
+        }
+    }
+
+    private static boolean holds(Cond cond, long v, long n){
+        switch (cond){
+            case LT: return v < n;
+            case LE: return v <= n;
+            case GT: return v > n;
+            case GE: return v >= n;
+            case EQ: return v == n;
+            default: return v != n;
+        }
+    }
+
+    // c for v := v + c, v := v - c, or t := v + c; v := t in one block
+    private static Integer step(Var v, IR update, IdentityHashMap<IR, BasicBlock> blockOf, ArrayList<IR> code, int h, int e){
+        IR i = update;
+        if (update instanceof assign && ((assign)update).right instanceof TempVar){
+            Var t = (Var)((assign)update).right;
+            i = null;
+            for (int n = code.indexOf(update) - 1; n >= h && blockOf.get(code.get(n)) == blockOf.get(update); n--){
+                if (code.get(n).def() == t){
+                    i = code.get(n);
+                    break;
+                }
+            }
+            for (int n = h; n <= e; n++){
+                if (code.get(n).def() == t && code.get(n) != i)
+                    return null;
+            }
+            if (i == null)
+                return null;
+        }
+        else if (update.def() != v){
+            return null;
+        }
+
+        if (i instanceof add){
+            add a = (add)i;
+            if (a.left == v && a.right instanceof IntImmediate)
+                return ((IntImmediate)a.right).val;
+            if (a.right == v && a.left instanceof IntImmediate)
+                return ((IntImmediate)a.left).val;
+        }
+        else if (i instanceof sub){
+            sub s = (sub)i;
+            if (s.left == v && s.right instanceof IntImmediate)
+                return -((IntImmediate)s.right).val;
+        }
+        return null;
+    }
+
+    // Int vars with a known value right before instruction h, from the straight line of code leading up to it
+    // (labels nothing jumps to, like the preheaders other passes leave, don't break it)
+    private static IdentityHashMap<Var, Long> constantsBefore(ArrayList<IR> code, int h){
+        IdentityHashMap<Label, Boolean> targets = new IdentityHashMap<>();
+        for (IR i : code){
+            if (i instanceof branch)
+                targets.put(((branch)i).labelOp.label, true);
+            else if (i instanceof goTo)
+                targets.put(((goTo)i).labelOp.label, true);
+        }
+        IdentityHashMap<Var, Long> constants = new IdentityHashMap<>();
+        int start = h;
+        while (start > 1 && !targets.containsKey(code.get(start - 1)) && !(code.get(start - 1) instanceof controlFlowInstruction))
+            start--;
+        for (int n = start; n < h; n++){
+            IR i = code.get(n);
+            Var def = i.def();
+            if (def == null)
+                continue;
+            Long value = null;
+            if (i instanceof assign && def.isInt())
+                value = value(((assign)i).right, constants);
+            else if (i instanceof binop && def.isInt()){
+                binop b = (binop)i;
+                Long l = value(b.left, constants);
+                Long r = value(b.right, constants);
+                if (l != null && r != null){
+                    if (i instanceof add) value = (long)(int)(l + r);
+                    else if (i instanceof sub) value = (long)(int)(l - r);
+                    else if (i instanceof mult) value = (long)(int)(l * r);
+                }
+            }
+            if (value != null)
+                constants.put(def, value);
+            else
+                constants.remove(def);
+        }
+        return constants;
+    }
+
+    private static Long value(Operand o, IdentityHashMap<Var, Long> constants){
+        if (o instanceof IntImmediate)
+            return (long)((IntImmediate)o).val;
+        if (o instanceof Var)
+            return constants.get(o);
+        return null;
+    }
+
+    // A copy of the body with labels of its own
+    private static ArrayList<IR> copy(IRFunction function, ArrayList<IR> body){
+        LinearIR code = new LinearIR(body);
+        IdentityHashMap<Label, Boolean> inside = new IdentityHashMap<>();
+        for (IR i : body){
+            if (i instanceof Label)
+                inside.put((Label)i, true);
+        }
+        for (int l = 0; l < code.labelCount(); l++){
+            if (inside.containsKey(code.label(l)))
+                code.setLabel(l, function.newLabel("unroll"));
+        }
+        return code.toIR();
+    }
+
+    private static branch sameBranch(branch b, Operand left, Label target){
+        LabelOp op = new LabelOp(target);
+        if (b instanceof brlt) return new brlt(left, b.right, op, true);
+        if (b instanceof brleq) return new brleq(left, b.right, op, true);
+        if (b instanceof brgt) return new brgt(left, b.right, op, true);
+        if (b instanceof brgeq) return new brgeq(left, b.right, op, true);
+        if (b instanceof breq) return new breq(left, b.right, op, true);
+        return new brneq(left, b.right, op, true);
+    }
+
+    private static boolean jumpsTo(IR i, Label label){
+        return (i instanceof branch && ((branch)i).labelOp.label == label)
+                || (i instanceof goTo && ((goTo)i).labelOp.label == label);
+    }
+
+    private static boolean isGlobal(Var v){
+        return v instanceof NamedVar && !v.isLocal;
+    }
+}
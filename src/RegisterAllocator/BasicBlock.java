@@ -4,6 +4,8 @@ import IR.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.function.Function;
 
 import Util.DiNode;
@@ -33,13 +35,17 @@ public class BasicBlock extends DiNode {
     public boolean makeChanges(){
         boolean changes = false;
         for (int i = 0; i < size(); i++){
-            HashSet<Var> additions = new HashSet<>();
-            additions.addAll(out(i));
-            additions.remove(getInstruction(i).def());
-            additions.addAll(getInstruction(i).use());
-            if (!in(i).containsAll(additions)){
-                changes = true;
-                in(i).addAll(additions);
+            // in = out - def + use, in only ever grows
+            IR instruction = getInstruction(i);
+            HashSet<Var> in = in(i);
+            Var def = instruction.def();
+            for (Var v : out(i)){
+                if (v != def && in.add(v))
+                    changes = true;
+            }
+            for (int u = 0; u < instruction.useCount(); u++){
+                if (in.add(instruction.useAt(u)))
+                    changes = true;
             }
         }
         return changes;
@@ -73,7 +79,7 @@ public class BasicBlock extends DiNode {
     public HashMap<Var, GlobalLiveRange> inputRanges = new HashMap<>();
 
     // Live ranges that exit the block
-    public HashMap<Var, GlobalLiveRange> outputRanges = new HashMap<>();
+    public LinkedHashMap<Var, GlobalLiveRange> outputRanges = new LinkedHashMap<>();
 
     // Current range for a variable
     private HashMap<Var, GlobalLiveRange> currentRange = new HashMap<>();
@@ -109,10 +115,10 @@ public class BasicBlock extends DiNode {
         }
         // Set of variables that must be live the entire block
         // because previous iterations of the loop are referenced
-        HashSet<Var> loopVars = new HashSet<>();
+        LinkedHashSet<Var> loopVars = new LinkedHashSet<>();
         for (int i = 0; i < size(); i++) {
-            Var def = getInstruction(i).def();
-            ArrayList<Var> uses = getInstruction(i).use();
+            IR instruction = getInstruction(i);
+            Var def = instruction.def();
             // Start a new live range
             if (def != null) {
                 lastDef.put(def, i);
@@ -124,7 +130,8 @@ public class BasicBlock extends DiNode {
                 currentRange.put(def, range);
             }
             // If there is a use extend from the last use
-            for (Var use : uses) {
+            for (int u = 0; u < instruction.useCount(); u++) {
+                Var use = instruction.useAt(u);
                 int start = 0;
                 GlobalLiveRange range = null;
                 if (lastDef.containsKey(use)) {
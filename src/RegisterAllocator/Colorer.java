@@ -13,6 +13,9 @@ public class Colorer {
 
     private ArrayList<LoadStore> loadStores = new ArrayList<>();
 
+    // Definitions whose value is never loaded back, null stores everything
+    public boolean[] deadStores = null;
+
     private LinkedHashSet<Register.Reg> intRegs = new LinkedHashSet<>();
     private LinkedHashSet<Register.Reg> floatRegs = new LinkedHashSet<>();
     private int numIntColors(){
@@ -187,15 +190,18 @@ public class Colorer {
                 // USED IN A DIFFERENT BASIC BLOCK
 
                 // if that definition is never used, assign to reserved var then store it
+                boolean store = deadStores == null || !deadStores[definitionLine];
                 if (liveRange.getLines().size() == 0) {
                     Register res1 = Register.res1(var.isInt());
                     block.getInstruction(definitionLine).replaceDef(var, res1);
-                    loadStores.get(definitionLine).addStore(res1, var);
+                    if (store)
+                        loadStores.get(definitionLine).addStore(res1, var);
                 }
-                // if that definition is used, assign its color and store it
+                // if that definition is used, assign its color and store it (unless nothing loads it)
                 else {
                     block.getInstruction(definitionLine).replaceDef(var, reg);
-                    loadStores.get(definitionLine).addStore(reg, var);
+                    if (store)
+                        loadStores.get(definitionLine).addStore(reg, var);
                 }
             }
             // if the definition line has no definition, this indicates a var is used without being defined
@@ -239,9 +245,7 @@ public class Colorer {
         for (Integer i : liveRange.getLines()){
 
             // if the var is used on that line
-            boolean used = block.getInstruction(i).use().contains(var);
-
-            if (block.getInstruction(i).use().contains(var)){
+            if (block.getInstruction(i).uses(var)){
 
 
                 if (!(block.getInstruction(i) instanceof callInstruction)){
@@ -259,8 +263,15 @@ public class Colorer {
                         liveRange.setColor(res2.register);
                         usingRes2 = true;
                     }
+                    // a select can have a third
+                    else if (loadStores.get(i).iloads.size() == 2){
+                        Register res3 = Register.res3(var.isInt());
+                        loadStores.get(i).addLoad(var, res3);
+                        block.getInstruction(i).replaceUses(liveRange.var, res3);
+                        liveRange.setColor(res3.register);
+                    }
                     else{
-                        System.out.println("WTH? BOTH LOADS ARE USED.");
+                        System.out.println("WTH? ALL THREE LOADS ARE USED.");
                     }
 
                     // insert store after use if it is a destination, for non-function-call instructions
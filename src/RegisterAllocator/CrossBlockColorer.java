@@ -0,0 +1,115 @@
+package RegisterAllocator;
+
+import IR.*;
+import Optimizer.Liveness;
+
+import java.util.*;
+
+// Keeps temporaries that live across blocks in registers for the whole function
+//
+// The intra-block allocator only knows about one block, so a value used in another block is
+// stored to memory where it's defined and loaded again in every block that uses it. With the
+// function's liveness, every temporary is one of
+//     block-local     : never live into a block, the block's own coloring handles it
+//     cross-block     : gets one of the registers below for all of the function
+//     spilled         : cross-block but no register was left, it keeps its memory slot
+// Two cross-block temporaries interfere when one is defined where the other is live, most used
+// first takes the first register none of its neighbours has. The registers are ones the block
+// coloring and spilling don't use. They survive calls because a callee's prologue saves every
+// register FunctionSetupVisitor sees one of its instructions write (array_load destinations
+// included). Named vars keep going through memory: params sit in the frame and globals are
+// read by other functions.
+
+public class CrossBlockColorer {
+
+    private static final Register.Reg[] INT_REGS = {
+            Register.Reg.S2, Register.Reg.S3, Register.Reg.S4,
+            Register.Reg.S5, Register.Reg.S6, Register.Reg.S7 };
+    // $f12 is the library's, $f8/$f9 are for spilling
+    private static final Register.Reg[] FLOAT_REGS = {
+            Register.Reg.F20, Register.Reg.F21, Register.Reg.F22,
+            Register.Reg.F23, Register.Reg.F24, Register.Reg.F25 };
+
+    private CrossBlockColorer(){}
+
+    // Rewrites the flow graph's code to use registers for the temporaries that got one
+    public static void color(FlowGraph flow, Liveness liveness){
+        BitSet candidates = new BitSet();
+        for (BasicBlock block : flow.getNodes()){
+            if (block != flow.entryBlock && block.size() > 0)
+                candidates.or(liveness.liveIn(block));
+        }
+        for (int v = candidates.nextSetBit(0); v >= 0; v = candidates.nextSetBit(v + 1)){
+            // used before it's given a value, that's whatever memory holds
+            if (!(liveness.var(v) instanceof TempVar) || liveness.liveIn(flow.entryBlock).get(v))
+                candidates.clear(v);
+        }
+        if (candidates.isEmpty())
+            return;
+
+        HashMap<Integer, BitSet> neighbours = new HashMap<>();
+        int[] uses = new int[liveness.size()];
+        for (int v = candidates.nextSetBit(0); v >= 0; v = candidates.nextSetBit(v + 1))
+            neighbours.put(v, new BitSet());
+        for (BasicBlock block : flow.getNodes()){
+            BitSet live = (BitSet)liveness.liveOut(block).clone();
+            for (int i = block.size() - 1; i >= 0; i--){
+                IR instruction = block.getInstruction(i);
+                Var def = instruction.def();
+                if (def != null && candidates.get(liveness.index(def))){
+                    int d = liveness.index(def);
+                    uses[d]++;
+                    BitSet others = (BitSet)live.clone();
+                    others.and(candidates);
+                    others.clear(d);
+                    for (int o = others.nextSetBit(0); o >= 0; o = others.nextSetBit(o + 1)){
+                        if (def.isInt() == liveness.var(o).isInt()){
+                            neighbours.get(d).set(o);
+                            neighbours.get(o).set(d);
+                        }
+                    }
+                }
+                for (int u = 0; u < instruction.useCount(); u++){
+                    int v = liveness.index(instruction.useAt(u));
+                    if (candidates.get(v))
+                        uses[v]++;
+                }
+                liveness.transfer(instruction, live);
+            }
+        }
+
+        ArrayList<Integer> order = new ArrayList<>(neighbours.keySet());
+        order.sort((a, b) -> uses[b] != uses[a] ? uses[b] - uses[a] : a - b);
+        IdentityHashMap<Var, Register> colors = new IdentityHashMap<>();
+        HashMap<Integer, Register.Reg> colorOf = new HashMap<>();
+        for (int v : order){
+            Var var = liveness.var(v);
+            for (Register.Reg reg : var.isInt() ? INT_REGS : FLOAT_REGS){
+                boolean taken = false;
+                BitSet adjacent = neighbours.get(v);
+                for (int n = adjacent.nextSetBit(0); n >= 0 && !taken; n = adjacent.nextSetBit(n + 1))
+                    taken = colorOf.get(n) == reg;
+                if (!taken){
+                    colorOf.put(v, reg);
+                    colors.put(var, new Register(reg));
+                    break;
+                }
+            }
+        }
+
+        for (BasicBlock block : flow.getNodes()){
+            for (IR instruction : block.instructions()){
+                ArrayList<Var> used = new ArrayList<>();
+                for (int u = 0; u < instruction.useCount(); u++)
+                    used.add(instruction.useAt(u));
+                for (Var v : used){
+                    if (colors.containsKey(v))
+                        instruction.replaceUses(v, colors.get(v));
+                }
+                Var def = instruction.def();
+                if (def != null && colors.containsKey(def))
+                    instruction.replaceDef(def, colors.get(def));
+            }
+        }
+    }
+}
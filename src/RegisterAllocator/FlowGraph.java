@@ -5,6 +5,8 @@ import Util.*;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 
 // A Control Flow Graph Used for liveness analysis
 // Implemented as a Graph where nodes are of subtype BasicBlock
@@ -18,6 +20,8 @@ public class FlowGraph extends DiGraph<BasicBlock> {
     public ArrayList<IR> instructions;
     public BasicBlock entryBlock;
     public BasicBlock exitBlock;
+    // every label in front of a block, not just its startLabel (passes can leave labels adjacent)
+    private IdentityHashMap<Label, BasicBlock> blockOf = new IdentityHashMap<>();
 
     public void calcGlobalLiveness(){
 
@@ -55,7 +59,7 @@ public class FlowGraph extends DiGraph<BasicBlock> {
     }
 
     public ArrayList<GlobalLiveRange> getGlobalLiveRanges() {
-        HashSet<GlobalLiveRange> set = new HashSet<>();
+        LinkedHashSet<GlobalLiveRange> set = new LinkedHashSet<>();
         for (BasicBlock block : getNodes()) {
             for (GlobalLiveRange r : block.internalLiveRanges) {
                 set.add(r);
@@ -78,7 +82,7 @@ public class FlowGraph extends DiGraph<BasicBlock> {
         this.instructions = instructions;
 
         // First generate leaders
-        ArrayList<Integer> leaders = generateLeaders(instructions);
+        HashSet<Integer> leaders = generateLeaders(instructions);
 
         // Then create a basic block for each leader
         String startLabel = ((Label)instructions.get(0)).name;
@@ -107,12 +111,15 @@ public class FlowGraph extends DiGraph<BasicBlock> {
                     next = new BasicBlock(i);
                 }
                 addNode(next);
+                for (int l = i - 1; l > 0 && instructions.get(l) instanceof Label; l--){
+                    blockOf.put((Label)instructions.get(l), next);
+                }
 
                 // If the last instruction wasn't an unconditional jump
                 // add edge to next block
                 if (block.size() == 0
-                        || !(block.lastInstruction() instanceof goTo)
-                        || !(block.lastInstruction() instanceof ret)){
+                        || !(block.lastInstruction() instanceof goTo
+                            || block.lastInstruction() instanceof ret)){
                     addEdge(block, next);
                 }
                 block = next;
@@ -143,26 +150,30 @@ public class FlowGraph extends DiGraph<BasicBlock> {
                     ret lastInstR = (ret)lastInst;
                     addEdge(bb, exitBlock);
                 }
+                // falling off the end of a function without a result returns too
+                else if (lastInst instanceof FunctionEpilogue){
+                    addEdge(bb, exitBlock);
+                }
             }
         }
     }
 
 
-    private ArrayList<Integer> generateLeaders(ArrayList<IR> instructions){
+    private HashSet<Integer> generateLeaders(ArrayList<IR> instructions){
         // First find leaders
-        ArrayList<Integer> leaders = new ArrayList<>();
+        HashSet<Integer> leaders = new HashSet<>();
         for (int i = 0; i < instructions.size(); i++){
 
             // An instruction is a leader if it is the target of a branch instruction
             // This is denoted by an instruction following a label
             // Our implementation allow no longer allows multiple consecutive labels,
             // But this code handles that case
+            // Every instruction is checked, a branch right after a leader still ends its block
             if (instructions.get(i) instanceof Label){
                 int nextInstruction = i + 1;
                 if (nextInstruction < instructions.size()){
                     if (!(instructions.get(nextInstruction) instanceof Label)){
                         leaders.add(nextInstruction);
-                        i = nextInstruction; // avoid making it a leader twice
                     }
                 }
             }
@@ -173,7 +184,6 @@ public class FlowGraph extends DiGraph<BasicBlock> {
                 if (nextInstruction < instructions.size()){
                     if (!(instructions.get(nextInstruction) instanceof Label)){
                         leaders.add(nextInstruction);
-                        i = nextInstruction;
                     }
                 }
             }
@@ -184,10 +194,9 @@ public class FlowGraph extends DiGraph<BasicBlock> {
 
 
     private BasicBlock getBlockByLabel(Label l){
-        for (BasicBlock block: getNodes()) {
-            if (block.startLabel == l)
-                return block;
-        }
+        BasicBlock block = blockOf.get(l);
+        if (block != null)
+            return block;
         // none found, return exit block
         // helps the case when a branch targeted a deleted label
         return exitBlock;
@@ -246,9 +246,7 @@ public class GlobalColorer {
         for (Integer i : liveRange.getLiveLines()){
 
             // if the var is used on that line
-            boolean used = instructions.get(i).use().contains(var);
-
-            if (instructions.get(i).use().contains(var)){
+            if (instructions.get(i).uses(var)){
 
 
                 if (!(instructions.get(i) instanceof callInstruction)){
@@ -22,7 +22,7 @@ public class GlobalLiveRanges {
     }
 
     // Maps a var to its  Global Live Ranges (spans across blocks)
-    private Map<Var, LinkedList<GlobalLiveRange>> liveRanges = new HashMap<>();
+    private Map<Var, LinkedList<GlobalLiveRange>> liveRanges = new LinkedHashMap<>();
     public Map<Var, LinkedList<GlobalLiveRange>> getRanges(){ return liveRanges;}
 
     // Returns a Linked List of all live ranges within the flow graph
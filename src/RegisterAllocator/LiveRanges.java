@@ -2,14 +2,17 @@ package RegisterAllocator;
 
 
 import IR.IR;
+import IR.NamedVar;
 import IR.Var;
+import IR.callInstruction;
+import Optimizer.ModRef;
 
 
 import java.util.*;
 
 public class LiveRanges {
 
-    private Map<Var, LinkedList<LiveRange>> liveRanges = new HashMap<>();
+    private Map<Var, LinkedList<LiveRange>> liveRanges = new LinkedHashMap<>();
     private LinkedHashSet<Var> vars = new LinkedHashSet<Var>();
 
     // returns variables used by Basic Block
@@ -39,9 +42,6 @@ public class LiveRanges {
     private void addVar(Var v){
         vars.add(v);
     }
-    private void addVars(ArrayList<Var> vars){
-        this.vars.addAll(vars);
-    }
     private void startNewLiveRange(Var var, int definitionLine){
         liveRanges.get(var).add( new LiveRange(var, definitionLine));
     }
@@ -49,13 +49,17 @@ public class LiveRanges {
         liveRanges.get(var).getLast().add(line);
     }
 
-    public LiveRanges(BasicBlock block){
+    // A global a call may change starts a new live range after the call, with no definition,
+    // so it's loaded again
+    public LiveRanges(BasicBlock block, ModRef modRef){
 
         // initialize vars
         for (IR instruction : block.instructions()){
             if (instruction.def() != null)
                 addVar(instruction.def());
-            addVars(instruction.use());
+            for (int u = 0; u < instruction.useCount(); u++){
+                addVar(instruction.useAt(u));
+            }
         }
 
         // now calculate live ranges
@@ -86,18 +90,22 @@ public class LiveRanges {
                 // this line might be redundant, figure it out TODO
                 if (block.out(i).contains(def)) addLiveEntry(def, i+1);
             }
+
+            if (block.getInstruction(i) instanceof callInstruction && i + 1 < block.size()){
+                ModRef.Summary called = modRef.of((callInstruction)block.getInstruction(i));
+                for (Var var : block.in(i + 1)){
+                    if (var != def && var instanceof NamedVar && !var.isLocal && called.mods(var))
+                        startNewLiveRange(var, i);
+                }
+            }
         }
 
         // calculate number of uses for each live range
         for (LiveRange lr : allRanges()){
             for (Integer i : lr.getLines()){
-                for (Var v : block.getInstruction(i).use()){
-                    if (v == lr.var){
-                        lr.incrementUses();
-                        break;
-                    }
+                if (block.getInstruction(i).uses(lr.var)){
+                    lr.incrementUses();
                 }
-
             }
         }
 
@@ -120,8 +120,10 @@ public class NaiveAllocatorVisitor implements IRVisitor {
             emit(new load(new Register(Register.Reg.T0), (Var)i.index, true));
             i.index = new Register(Register.Reg.T0);
         }
-        emit(new load(new Register(i.isInt() ? Register.Reg.T2 : Register.Reg.F2), (Var)i.right, i.isInt()));
-        i.right = new Register(i.isInt() ? Register.Reg.T2 : Register.Reg.F2);
+        if (i.right instanceof Var) {
+            emit(new load(new Register(i.isInt() ? Register.Reg.T2 : Register.Reg.F2), (Var)i.right, i.isInt()));
+            i.right = new Register(i.isInt() ? Register.Reg.T2 : Register.Reg.F2);
+        }
         emit(i);
     }
 
@@ -258,6 +260,28 @@ public class NaiveAllocatorVisitor implements IRVisitor {
         i.dst = new Register(Register.Reg.F0);
     }
 
+    public void visit(select i) {
+        if (i.left instanceof Var) {
+            emit(new load(new Register(Register.Reg.T0), (Var)i.left, true));
+            i.left = new Register(Register.Reg.T0);
+        }
+        if (i.right instanceof Var) {
+            emit(new load(new Register(Register.Reg.T1), (Var)i.right, true));
+            i.right = new Register(Register.Reg.T1);
+        }
+        if (i.value instanceof Var) {
+            emit(new load(new Register(Register.Reg.T2), (Var)i.value, true));
+            i.value = new Register(Register.Reg.T2);
+        }
+        if (i.other instanceof Var) {
+            emit(new load(new Register(Register.Reg.T3), (Var)i.other, true));
+            i.other = new Register(Register.Reg.T3);
+        }
+        emit(i);
+        emit(new store(new Register(Register.Reg.T4), (Var)i.result, true));
+        i.result = new Register(Register.Reg.T4);
+    }
+
     public void visit(load i) {
         emit(i);
     }
@@ -5,6 +5,10 @@ import IR.*;
 import java.util.*;
 
 import Config.*;
+import IRGenerator.IRGen;
+import Optimizer.IRModule;
+import Optimizer.Liveness;
+import Optimizer.ModRef;
 
 public class RegAllocator {
 
@@ -14,6 +18,8 @@ public class RegAllocator {
     // returns a stream with MIPS register names
     // and loads and stores inserted
     public static ArrayList<IR> allocate(ArrayList<IR> instructions){
+        // blocks start at one label, a label right before it would be lost
+        instructions = IRGen.mergeLabels(instructions);
         if (Config.REG_ALLOCATOR == Config.RegAllocator.NAIVE){
             return naiveAllocator(instructions);
         }
@@ -38,22 +44,37 @@ public class RegAllocator {
     private static ArrayList<IR> intraBlockAllocator(ArrayList<IR> instructions){
         ArrayList<IR> out = new ArrayList<>();
 
+        // what calls can do to globals, a global a call changes is loaded again after it
+        ModRef modRef = new ModRef(new IRModule(instructions));
+
         ArrayList<FlowGraph> flows = FlowGraphGen.generate(instructions);
         for (FlowGraph flow : flows){
             // replace symbolic registers with fixed register set
             // by calculating liveness ranges
 
+            // the function's label, even if the first block starts at a later label
+            Label functionLabel = (Label)flow.instructions.get(0);
+            out.add(functionLabel);
+
+            // from -O1 on, stores nothing loads again are left out
+            Liveness liveness = Config.OPT_LEVEL >= 1 ? new Liveness(flow, modRef) : null;
+            // and temporaries used in other blocks stay in registers where there's room
+            if (liveness != null)
+                CrossBlockColorer.color(flow, liveness);
+
             for (BasicBlock block : flow.getNodes()){
                 // don't do anything for dummy entry/exit blocks
                 if (block.size() > 0){
 
                     block.calcLiveness();
-                    LiveRanges ranges = new LiveRanges(block);
+                    LiveRanges ranges = new LiveRanges(block, modRef);
                     InterferenceGraph IG = new InterferenceGraph(ranges);
                     Colorer colorer = new Colorer(block, IG);
+                    if (liveness != null)
+                        colorer.deadStores = deadStores(block, liveness, modRef);
                     ArrayList<IR> newIR = colorer.color();
 
-                    if (block.startLabel != null)
+                    if (block.startLabel != null && block.startLabel != functionLabel)
                         out.add(block.startLabel);
                     out.addAll(newIR);
                 }
@@ -62,6 +83,38 @@ public class RegAllocator {
         return out;
     }
 
+    // Which definitions of a block don't need storing to memory
+    // Every block loads what it uses from memory, so a value only has to be stored when a later
+    // block loads it (it's live out and not assigned again in this block), or when it's a global
+    // and a call that reads or writes it comes before the next assignment (after a call that may
+    // write it, it's loaded again). Uses in the block itself read the register.
+    private static boolean[] deadStores(BasicBlock block, Liveness liveness, ModRef modRef){
+        boolean[] dead = new boolean[block.size()];
+        BitSet loaded = (BitSet)liveness.liveOut(block).clone();
+        BitSet globals = new BitSet();
+        for (int i = 0; i < block.size(); i++){
+            Var def = block.getInstruction(i).def();
+            if (def != null && liveness.isGlobal(def))
+                globals.set(liveness.index(def));
+        }
+        for (int i = block.size() - 1; i >= 0; i--){
+            IR instruction = block.getInstruction(i);
+            Var def = instruction.def();
+            if (def != null){
+                dead[i] = !loaded.get(liveness.index(def));
+                loaded.clear(liveness.index(def));
+            }
+            if (instruction instanceof callInstruction){
+                ModRef.Summary called = modRef.of((callInstruction)instruction);
+                for (int g = globals.nextSetBit(0); g >= 0; g = globals.nextSetBit(g + 1)){
+                    if (called.refs(liveness.var(g)) || called.mods(liveness.var(g)))
+                        loaded.set(g);
+                }
+            }
+        }
+        return dead;
+    }
+
     // Does liveness analysis at the procedure level
 
 
@@ -563,7 +563,7 @@ public class SemanticAnalyzer {
         }
         node.left = left;
         node.right = right;
-        node.type = errorType;
+        node.type = symbolTable.get("int");
         node.lineNumber = left.lineNumber;
 
         semanticStack.addFirst(node);
@@ -5,6 +5,7 @@ import java.util.ArrayList;
 public abstract class DiNode {
 
     public ArrayList<DiNode> getSucc(){return succ;}
+    public ArrayList<DiNode> getPred(){return pred;}
     protected ArrayList<DiNode> succ = new ArrayList<>();
     protected ArrayList<DiNode> pred = new ArrayList<>();
 
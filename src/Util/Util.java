@@ -67,6 +67,25 @@ public class Util {
         }
     }
 
+    public static byte[] readBytes(String path){
+        try {
+            return Files.readAllBytes(Paths.get(path));
+        }
+        catch (IOException e){
+            System.out.println("Aborting. Failed to read \"" + path + "\": " + e);
+            System.exit(1);
+            return null;
+        }
+    }
 
+    public static void writeBytes(byte[] content, String filename){
+        try {
+            Files.write(Paths.get(filename), content);
+        }
+        catch (IOException e){
+            System.out.println("Error generating " + filename);
+            System.out.println(e);
+        }
+    }
 
 }
@@ -1,8 +1,11 @@
 import AST.ASTToString;
+import Cache.BuildCache;
+import Cache.FunctionCache;
 import Config.Config;
 import IRGenerator.IRGen;
 import MIPSGenerator.*;
 import MIPSGenerator.MIPSGen;
+import Optimizer.PassManager;
 import Parser.Parser;
 import Parser.TigerScanner;
 import AST.ASTRoot;
@@ -10,8 +13,11 @@ import IR.*;
 import RegisterAllocator.RegAllocator;
 import Util.Util;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
 
 
 // The Compiler class should be the top-level Entity
@@ -21,12 +27,14 @@ public class tig {
 
     static boolean genMIPS = true;
     static boolean genIR = false;
+    static boolean genIRB = false;
     static boolean genAST = false;
     static boolean printSRC = false;
     static boolean printMIPS = false;
     static boolean printIR = false;
     static boolean printAST = false;
     static boolean ASTAsSEXP = true;
+    static boolean timePasses = false;
     static String source = "";
 
     public static void main(String[] args){
@@ -56,6 +64,7 @@ public class tig {
         System.out.println("GENERATE FILES (defaults to mips only)");
         System.out.println("    -g=ast  :   generate AST file (.ast extension)");
         System.out.println("    -g=ir   :   generate IR file (.ir extension)");
+        System.out.println("    -g=irb  :   generate binary IR file (.irb extension), tig compiles .irb files like .tiger ones");
         System.out.println("    -g=mips :   generate MIPS file (.s extension)");
         System.out.println("PRINT TO STDOUT (all off by default)");
         System.out.println("    -p=src  :   print source code");
@@ -70,6 +79,14 @@ public class tig {
         System.out.println("    -a=n    :   naive");
         System.out.println("    -a=i    :   intrablock");
         System.out.println("    -a=g    :   global");
+        System.out.println("OPTIMIZATION (defaults to -O0)");
+        System.out.println("    -O0     :   no optimization");
+        System.out.println("    -O1     :   cheap local optimizations");
+        System.out.println("    -O2     :   all optimizations");
+        System.out.println("    -time-passes :   print the time taken and instructions removed by each pass");
+        System.out.println("BUILD CACHE (off by default)");
+        System.out.println("    -cache=DIR     :   reuse outputs of identical earlier compilations stored in DIR");
+        System.out.println("    -cachesize=MB  :   evict least recently used entries past this size (default 64)");
     }
 
     public static void parseArgs(String[] args){
@@ -93,6 +110,9 @@ public class tig {
                 if (args[i].equals("-g=ir")){
                     genIR = true;
                 }
+                if (args[i].equals("-g=irb")){
+                    genIRB = true;
+                }
                 if (args[i].equals("-g=mips")){
                     genMIPS = true;
                 }
@@ -126,11 +146,38 @@ public class tig {
                 if (args[i].equals("-a=g")){
                     Config.REG_ALLOCATOR = Config.RegAllocator.GLOBAL;
                 }
+                // Optimization options
+                if (args[i].equals("-O0")){
+                    Config.OPT_LEVEL = 0;
+                }
+                if (args[i].equals("-O1")){
+                    Config.OPT_LEVEL = 1;
+                }
+                if (args[i].equals("-O2")){
+                    Config.OPT_LEVEL = 2;
+                }
+                if (args[i].equals("-time-passes")){
+                    timePasses = true;
+                }
+                // Build cache options
+                if (args[i].startsWith("-cache=")){
+                    Config.CACHE_DIR = args[i].substring("-cache=".length());
+                }
+                if (args[i].startsWith("-cachesize=")){
+                    try {
+                        Config.CACHE_MAX_BYTES = Long.parseLong(args[i].substring("-cachesize=".length())) * 1024 * 1024;
+                    }
+                    catch (NumberFormatException e){
+                        System.out.println("Invalid cache size \"" + args[i] + "\". Aborting");
+                        System.exit(0);
+                    }
+                }
             }
             else {
-                // check for a tiger file
-                if (!Util.getFileExtension(args[i]).equals("tiger")){
-                    System.out.println("Input file \"" + args[i] +  "\" must have .tiger extension. Aborting");
+                // check for a tiger file or binary IR
+                String extension = Util.getFileExtension(args[i]);
+                if (!extension.equals("tiger") && !extension.equals("irb")){
+                    System.out.println("Input file \"" + args[i] +  "\" must have .tiger or .irb extension. Aborting");
                     System.exit(0);
                 } else if (!Util.fileExists(args[i])) {
                     System.out.println("Input file \"" + args[i] +  "\" does not exist. Aborting");
@@ -145,59 +192,177 @@ public class tig {
 
     public static void compile(){
 
+        if (Util.getFileExtension(source).equals("irb")){
+            compileIR();
+            return;
+        }
+
+        // Reuse the outputs of an identical earlier compilation if there is one
+        BuildCache cache = null;
+        String cacheKey = null;
+        if (Config.CACHE_DIR != null){
+            cache = new BuildCache(Config.CACHE_DIR);
+            cacheKey = BuildCache.key(source, cacheOptions());
+            LinkedHashMap<String, String> artifacts = cache.get(cacheKey);
+            if (artifacts != null){
+                if (printSRC)
+                    printSource();
+                outputAST(artifacts.get("ast"));
+                outputIR(artifacts.get("ir"));
+                outputIRB(Base64.getDecoder().decode(artifacts.get("irb")));
+                outputMIPS(artifacts.get("s"));
+                return;
+            }
+        }
+
         // Parse source file and generate an AST
         TigerScanner scanner = new TigerScanner(source);
         Parser parser = new Parser(scanner);
         ASTRoot ast = parser.parse();
         if (printSRC){
-            System.out.println("\n-----SOURCE START-----");
-            System.out.println(Util.readFile(source));
-            System.out.println("-----SOURCE END--------");
+            printSource();
+        }
+        String aststr = null;
+        if (printAST || genAST || cache != null){
+            aststr = ASTToString.getTreeString(ast, ASTAsSEXP);
+            outputAST(aststr);
+        }
+
+        PassManager passes = PassManager.forLevel(Config.OPT_LEVEL);
+
+        String irstr = null;
+        byte[] irb = null;
+        String mipscode;
+        if (cache != null && !passes.hasModulePasses()){
+            // Compile function by function, reusing the outputs of unchanged functions
+            FunctionCache functions = new FunctionCache(cache, passes);
+            functions.compile(ast);
+            irstr = functions.ir;
+            outputIR(irstr);
+            irb = functions.irb;
+            outputIRB(irb);
+            mipscode = functions.mips;
+        }
+        else {
+            // Walk AST to generate IR code
+            IRGen irgen = new IRGen(ast);
+            ArrayList<IR> ir1 = irgen.generate();
+
+            // Optimize
+            ir1 = passes.run(ir1);
+
+            if (printIR || genIR || cache != null){
+                irstr = IRStreamToString(ir1);
+                outputIR(irstr);
+            }
+            if (genIRB || cache != null){
+                irb = IRWriter.write(ir1);
+                outputIRB(irb);
+            }
+
+            // Iterate through IR code to assign registers and insert loads/stores
+            ArrayList<IR> ir2 = RegAllocator.allocate(ir1);
+
+            // Iterate through augmented IR to generate MIPS code
+            mipscode = MIPSGen.generate(ir2);
+        }
+        outputMIPS(mipscode);
+        if (timePasses){
+            passes.printReport();
         }
+
+        if (cache != null){
+            LinkedHashMap<String, String> artifacts = new LinkedHashMap<>();
+            artifacts.put("ast", aststr);
+            artifacts.put("ir", irstr);
+            artifacts.put("irb", Base64.getEncoder().encodeToString(irb));
+            artifacts.put("s", mipscode);
+            cache.put(cacheKey, artifacts);
+            cache.evict();
+        }
+    }
+
+    // Options that change the content of the cached artifacts
+    // The -g and -p switches only select which artifacts are written or printed,
+    // every entry holds all of them
+    private static String cacheOptions(){
+        return "alloc=" + Config.REG_ALLOCATOR + ";sexp=" + ASTAsSEXP + ";opt=" + Config.OPT_LEVEL;
+    }
+
+    private static void printSource(){
+        System.out.println("\n-----SOURCE START-----");
+        System.out.println(Util.readFile(source));
+        System.out.println("-----SOURCE END--------");
+    }
+
+    private static void outputAST(String aststr){
         if (printAST){
             System.out.println("\n-----AST START-----");
-            System.out.println(ASTToString.getTreeString(ast, ASTAsSEXP));
+            System.out.println(aststr);
             System.out.println("-----AST END--------");
         }
         if (genAST){
-            Util.writeFile(ASTToString.getTreeString(ast, ASTAsSEXP), source.replace(".tiger", ".ast"));
+            Util.writeFile(aststr, outputPath("ast"));
         }
+    }
 
-        // Walk AST to generate IR code
-        IRGen irgen = new IRGen(ast);
-        ArrayList<IR> ir1 = irgen.generate();
+    private static void outputIR(String irstr){
         if (printIR){
             System.out.println("\n-----IR START-----");
-            System.out.print(IRStreamToString(ir1));
+            System.out.print(irstr);
             System.out.println("-----IR END--------");
         }
         if (genIR){
-            Util.writeFile(IRStreamToString(ir1), source.replace(".tiger", ".ir"));
+            Util.writeFile(irstr, outputPath("ir"));
         }
+    }
 
-        // Iterate through IR code to assign registers and insert loads/stores
-        ArrayList<IR> ir2 = RegAllocator.allocate(ir1);
+    private static void outputIRB(byte[] irb){
+        if (genIRB){
+            Util.writeBytes(irb, outputPath("irb"));
+        }
+    }
 
-        // Iterate through augmented IR to generate MIPS code
-        String mipscode = MIPSGen.generate(ir2);
+    private static void outputMIPS(String mipscode){
         if (printMIPS){
             System.out.println("\n-----MIPS START-----");
             System.out.print(mipscode);
             System.out.println("-----MIPS END--------");
         }
         if (genMIPS){
-            Util.writeFile(mipscode, source.replace(".tiger", ".s"));
+            Util.writeFile(mipscode, outputPath("s"));
+        }
+    }
+
+    // Source file name with its extension swapped for the given one
+    private static String outputPath(String extension){
+        return source.substring(0, source.lastIndexOf('.') + 1) + extension;
+    }
+
+    // Runs the back end on binary IR written by an earlier -g=irb
+    private static void compileIR(){
+        ArrayList<IR> ir1;
+        try {
+            ir1 = IRReader.read(Util.readBytes(source));
+        }
+        catch (IOException | RuntimeException e){
+            System.out.println("Invalid binary IR file \"" + source + "\": " + e + ". Aborting");
+            System.exit(1);
+            return;
+        }
+        PassManager passes = PassManager.forLevel(Config.OPT_LEVEL);
+        ir1 = passes.run(ir1);
+        if (printIR || genIR){
+            outputIR(IRStreamToString(ir1));
+        }
+        ArrayList<IR> ir2 = RegAllocator.allocate(ir1);
+        outputMIPS(MIPSGen.generate(ir2));
+        if (timePasses){
+            passes.printReport();
         }
     }
 
     public static String IRStreamToString(ArrayList<IR> stream){
-        String str = "";
-        for (IR i : stream) {
-            if (i instanceof Label)
-                str += (i + "\n");
-            else
-                str += ("    " + i + "\n");
-        }
-        return str;
+        return IRGen.streamToString(stream);
     }
 }
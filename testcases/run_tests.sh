@@ -0,0 +1,36 @@
+#!/bin/bash
+# Compiles every testcase that has a .expected file at -O0, -O1 and -O2 with the naive and the
+# intra-block allocator, runs it and compares what it prints with the .expected file.
+#
+#     testcases/run_tests.sh                      runs the programs on spim
+#     SIM="mysim" testcases/run_tests.sh          on another simulator, given the .s file
+#
+# Whitespace is left out of the comparison, spim prints the numbers of printi back to back.
+
+cd "$(dirname "$0")/.."
+SIM=${SIM:-"spim -quiet -file"}
+OUT=$(mktemp -d)
+trap 'rm -rf "$OUT"' EXIT
+
+javac -nowarn -XDsuppressNotes -encoding ISO-8859-1 -d "$OUT" $(find src -name '*.java') || exit 1
+cp resources/Agrammar.txt resources/ParseTable.csv "$OUT"
+
+failed=0
+for expected in testcases/*.expected; do
+    name=$(basename "$expected" .expected)
+    want=$(tr -d ' \t\n' < "$expected")
+    for level in 0 1 2; do
+        for alloc in n i; do
+            cp "testcases/$name.tiger" "$OUT/$name.tiger"
+            rm -f "$OUT/$name.s"
+            (cd "$OUT" && java tig "$name.tiger" -O$level -a=$alloc > /dev/null 2>&1)
+            got=$($SIM "$OUT/$name.s" 2>&1 | grep -v '^Loaded:' | tr -d ' \t\n')
+            if [ "$got" != "$want" ]; then
+                echo "FAIL $name -O$level -a=$alloc: got [$got] expected [$want]"
+                failed=1
+            fi
+        done
+    done
+done
+[ $failed -eq 0 ] && echo "all passed"
+exit $failed